@@ -15,18 +15,33 @@ import org.apache.commons.lang.Validate;
 import org.bukkit.Server;
 import org.bukkit.command.defaults.*;
 import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.SimplePluginManager;
 import org.bukkit.util.StringUtil;
 
 public class SimpleCommandMap implements CommandMap {
     private static final Pattern PATTERN_ON_SPACE = Pattern.compile(" ", Pattern.LITERAL);
     protected final Map<String, Command> knownCommands = new HashMap<String, Command>();
     private final Server server;
+    private SimplePluginManager pluginManager;
 
     public SimpleCommandMap(final Server server) {
         this.server = server;
         setDefaultCommands();
     }
 
+    /**
+     * Sets the plugin manager whose {@link
+     * org.bukkit.plugin.PluginDescriptionFile#isLazy() lazy} plugins are
+     * enabled when one of their commands is dispatched. This is called by
+     * the plugin manager using this command map.
+     *
+     * @param pluginManager the plugin manager
+     */
+    public void setPluginManager(SimplePluginManager pluginManager) {
+        this.pluginManager = pluginManager;
+    }
+
     private void setDefaultCommands() {
         register("bukkit", new SaveCommand());
         register("bukkit", new SaveOnCommand());
@@ -175,6 +190,11 @@ public class SimpleCommandMap implements CommandMap {
             return false;
         }
 
+        if (target instanceof PluginCommand && pluginManager != null) {
+            // Lazy plugins are enabled by the first use of one of their commands
+            pluginManager.enableLazyPlugin(((PluginCommand) target).getPlugin());
+        }
+
         try {
             // Note: we don't return the result of target.execute as thats success / failure, we return handled (true) or not handled (false)
             target.execute(sender, sentCommandLabel, Arrays_copyOfRange(args, 1, args.length));
@@ -196,6 +216,23 @@ public class SimpleCommandMap implements CommandMap {
         setDefaultCommands();
     }
 
+    /**
+     * Unregisters every command belonging to the given plugin, including
+     * its aliases and fallback labels
+     *
+     * @param plugin the plugin whose commands to unregister
+     */
+    public synchronized void unregisterCommands(Plugin plugin) {
+        Iterator<Command> iterator = knownCommands.values().iterator();
+        while (iterator.hasNext()) {
+            Command command = iterator.next();
+            if (command instanceof PluginIdentifiableCommand && ((PluginIdentifiableCommand) command).getPlugin() == plugin) {
+                iterator.remove();
+                command.unregister(this);
+            }
+        }
+    }
+
     public Command getCommand(String name) {
         Command target = knownCommands.get(name.toLowerCase());
         return target;
@@ -4,7 +4,9 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang.Validate;
 import org.bukkit.Bukkit;
@@ -13,31 +15,52 @@ import org.bukkit.command.CommandSender;
 import org.bukkit.event.Event;
 import org.bukkit.event.HandlerList;
 import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginManager;
 import org.bukkit.plugin.RegisteredListener;
+import org.bukkit.plugin.SimplePluginManager;
 import org.bukkit.plugin.TimedRegisteredListener;
+import org.bukkit.plugin.TimingHistogram;
 import org.bukkit.util.StringUtil;
+import org.json.simple.JSONValue;
 
 import com.google.common.collect.ImmutableList;
 
 public class TimingsCommand extends BukkitCommand {
-    private static final List<String> TIMINGS_SUBCOMMANDS = ImmutableList.of("merged", "reset", "separate");
+    private static final List<String> TIMINGS_SUBCOMMANDS = ImmutableList.of("merged", "reset", "sample", "separate");
 
     public TimingsCommand(String name) {
         super(name);
         this.description = "Records timings for all plugin events";
-        this.usageMessage = "/timings <reset|merged|separate>";
+        this.usageMessage = "/timings <reset|merged|separate|sample <percent>>";
         this.setPermission("bukkit.command.timings");
     }
 
     @Override
     public boolean execute(CommandSender sender, String currentAlias, String[] args) {
         if (!testPermission(sender)) return true;
+        PluginManager pluginManager = sender.getServer().getPluginManager();
+        SimplePluginManager sampler = pluginManager instanceof SimplePluginManager ? (SimplePluginManager) pluginManager : null;
+        if (args.length == 2 && "sample".equals(args[0]) && sampler != null) {
+            double percent;
+            try {
+                percent = Double.parseDouble(args[1]);
+            } catch (NumberFormatException ex) {
+                percent = -1;
+            }
+            if (percent < 0 || percent > 100) {
+                sender.sendMessage(ChatColor.RED + "Sample percentage must be between 0 and 100");
+                return true;
+            }
+            sampler.setEventProfiling(percent / 100);
+            sender.sendMessage(percent == 0 ? "Event sampling disabled" : "Sampling " + percent + "% of events");
+            return true;
+        }
         if (args.length != 1)  {
             sender.sendMessage(ChatColor.RED + "Usage: " + usageMessage);
             return false;
         }
-        if (!sender.getServer().getPluginManager().useTimings()) {
-            sender.sendMessage("Please enable timings by setting \"settings.plugin-profiling\" to true in bukkit.yml");
+        if (!pluginManager.useTimings() && (sampler == null || (sampler.getEventProfiling() == 0 && sampler.getEventProfile().isEmpty()))) {
+            sender.sendMessage("Please enable timings by setting \"settings.plugin-profiling\" to true in bukkit.yml, or sample events with /timings sample <percent>");
             return true;
         }
 
@@ -50,6 +73,9 @@ public class TimingsCommand extends BukkitCommand {
                     }
                 }
             }
+            if (sampler != null) {
+                sampler.resetEventProfile();
+            }
             sender.sendMessage("Timings reset");
         } else if ("merged".equals(args[0]) || separate) {
 
@@ -60,8 +86,11 @@ public class TimingsCommand extends BukkitCommand {
             File timings = new File(timingFolder, "timings.txt");
             File names = null;
             while (timings.exists()) timings = new File(timingFolder, "timings" + (++index) + ".txt");
+            File jsonTimings = new File(timingFolder, timings.getName().replaceFirst("\\.txt$", ".json"));
             PrintStream fileTimings = null;
             PrintStream fileNames = null;
+            PrintStream fileJson = null;
+            List<Object> jsonPlugins = new ArrayList<Object>();
             try {
                 fileTimings = new PrintStream(timings);
                 if (separate) {
@@ -71,6 +100,7 @@ public class TimingsCommand extends BukkitCommand {
                 for (Plugin plugin : Bukkit.getPluginManager().getPlugins()) {
                     pluginIdx++;
                     long totalTime = 0;
+                    List<Object> jsonListeners = new ArrayList<Object>();
                     if (separate) {
                         fileNames.println(pluginIdx + " " + plugin.getDescription().getFullName());
                         fileTimings.println("Plugin " + pluginIdx);
@@ -87,12 +117,30 @@ public class TimingsCommand extends BukkitCommand {
                             Class<? extends Event> eventClass = trl.getEventClass();
                             if (count > 0 && eventClass != null) {
                                 fileTimings.println("    " + eventClass.getSimpleName() + (trl.hasMultiple() ? " (and sub-classes)" : "") + " Time: " + time + " Count: " + count + " Avg: " + avg);
+                                jsonListeners.add(toJson(trl, eventClass));
                             }
+                        } else if (sampler != null) {
+                            TimingHistogram histogram = sampler.getEventProfile().get(listener);
+                            if (histogram == null || histogram.getCount() == 0) continue;
+                            long time = histogram.getTotalTime();
+                            long count = histogram.getCount();
+                            totalTime += time;
+                            fileTimings.println("    " + listener.getListener().getClass().getName() + " (" + listener.getPriority() + ", sampled) Time: " + time + " Count: " + count + " Avg: " + time / count);
+                            jsonListeners.add(toJson(listener, histogram));
                         }
                     }
                     fileTimings.println("    Total time " + totalTime + " (" + totalTime / 1000000000 + "s)");
+
+                    Map<String, Object> jsonPlugin = new LinkedHashMap<String, Object>();
+                    jsonPlugin.put("plugin", plugin.getDescription().getFullName());
+                    jsonPlugin.put("totalTime", totalTime);
+                    jsonPlugin.put("listeners", jsonListeners);
+                    jsonPlugins.add(jsonPlugin);
                 }
+                fileJson = new PrintStream(jsonTimings);
+                fileJson.println(JSONValue.toJSONString(jsonPlugins));
                 sender.sendMessage("Timings written to " + timings.getPath());
+                sender.sendMessage("JSON timings written to " + jsonTimings.getPath());
                 if (separate) sender.sendMessage("Names written to " + names.getPath());
             } catch (IOException e) {
             } finally {
@@ -102,11 +150,36 @@ public class TimingsCommand extends BukkitCommand {
                 if (fileNames != null) {
                     fileNames.close();
                 }
+                if (fileJson != null) {
+                    fileJson.close();
+                }
             }
         }
         return true;
     }
 
+    private static Map<String, Object> toJson(TimedRegisteredListener listener, Class<? extends Event> eventClass) {
+        Map<String, Object> json = toJson(listener, listener.getTimings());
+        json.put("event", eventClass.getName());
+        json.put("subclasses", listener.hasMultiple());
+        return json;
+    }
+
+    private static Map<String, Object> toJson(RegisteredListener listener, TimingHistogram histogram) {
+        Map<String, Object> json = new LinkedHashMap<String, Object>();
+        json.put("listener", listener.getListener().getClass().getName());
+        json.put("priority", listener.getPriority().name());
+        json.put("sampled", !(listener instanceof TimedRegisteredListener));
+        json.put("count", histogram.getCount());
+        json.put("totalTime", histogram.getTotalTime());
+        json.put("avg", histogram.getTotalTime() / Math.max(1, histogram.getCount()));
+        json.put("p50", histogram.getPercentile(50));
+        json.put("p99", histogram.getPercentile(99));
+        json.put("max", histogram.getMaxTime());
+        json.put("maxTimestamp", histogram.getMaxTimestamp());
+        return json;
+    }
+
     @Override
     public List<String> tabComplete(CommandSender sender, String alias, String[] args) {
         Validate.notNull(sender, "Sender cannot be null");
@@ -5,6 +5,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -239,6 +240,21 @@ public class ConfigurationSerialization {
         }
     }
 
+    /**
+     * Unregisters any aliases for classes defined by the specified class
+     * loader, such as the classes of a plugin being unloaded
+     *
+     * @param loader Class loader whose classes to unregister
+     */
+    public static void unregisterClasses(ClassLoader loader) {
+        Iterator<Class<? extends ConfigurationSerializable>> iterator = aliases.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getClassLoader() == loader) {
+                iterator.remove();
+            }
+        }
+    }
+
     /**
      * Attempts to get a registered {@link ConfigurationSerializable} class by
      * its alias
@@ -7,6 +7,12 @@ import java.lang.annotation.Target;
 
 /**
  * An annotation to mark methods as being event handler methods
+ * <p>
+ * A method takes either a single event, or a {@link java.util.List} of
+ * events such as {@code List<BlockBreakEvent>}. A method taking a list is
+ * called once for each batch of events passed to {@link
+ * org.bukkit.plugin.PluginManager#callEvents(java.util.List)}, and with a
+ * list holding just the event for events called one by one.
  */
 @Target(ElementType.METHOD)
 @Retention(RetentionPolicy.RUNTIME)
@@ -24,11 +24,28 @@ public class HandlerList {
      */
     private final EnumMap<EventPriority, ArrayList<RegisteredListener>> handlerslots;
 
+    /**
+     * Number of listeners in the handler slots. Kept separately from the
+     * handlers array so it can be read without baking.
+     */
+    private volatile int listenerCount = 0;
+
     /**
      * List of all HandlerLists which have been created, for use in bakeAll()
      */
     private static ArrayList<HandlerList> allLists = new ArrayList<HandlerList>();
 
+    /**
+     * Reverse indexes of the HandlerLists each plugin and listener has been
+     * registered to, for use in unregisterAll(Plugin) and
+     * unregisterAll(Listener). An entry may name lists the key has since been
+     * unregistered from, but never misses one it is still registered to.
+     * Guarded by the pluginLists monitor, which is never held while
+     * acquiring another lock.
+     */
+    private static final Map<Plugin, Set<HandlerList>> pluginLists = new WeakHashMap<Plugin, Set<HandlerList>>();
+    private static final Map<Listener, Set<HandlerList>> listenerLists = new WeakHashMap<Listener, Set<HandlerList>>();
+
     /**
      * Bake all handler lists. Best used just after all normal event
      * registration is complete, ie just after all plugins are loaded if
@@ -53,9 +70,14 @@ public class HandlerList {
                         list.clear();
                     }
                     h.handlers = null;
+                    h.listenerCount = 0;
                 }
             }
         }
+        synchronized (pluginLists) {
+            pluginLists.clear();
+            listenerLists.clear();
+        }
     }
 
     /**
@@ -64,10 +86,15 @@ public class HandlerList {
      * @param plugin plugin to unregister
      */
     public static void unregisterAll(Plugin plugin) {
-        synchronized (allLists) {
-            for (HandlerList h : allLists) {
-                h.unregister(plugin);
-            }
+        Set<HandlerList> lists;
+        synchronized (pluginLists) {
+            lists = pluginLists.remove(plugin);
+        }
+        if (lists == null) {
+            return;
+        }
+        for (HandlerList h : lists) {
+            h.unregister(plugin);
         }
     }
 
@@ -77,10 +104,15 @@ public class HandlerList {
      * @param listener listener to unregister
      */
     public static void unregisterAll(Listener listener) {
-        synchronized (allLists) {
-            for (HandlerList h : allLists) {
-                h.unregister(listener);
-            }
+        Set<HandlerList> lists;
+        synchronized (pluginLists) {
+            lists = listenerLists.remove(listener);
+        }
+        if (lists == null) {
+            return;
+        }
+        for (HandlerList h : lists) {
+            h.unregister(listener);
         }
     }
 
@@ -109,6 +141,20 @@ public class HandlerList {
             throw new IllegalStateException("This listener is already registered to priority " + listener.getPriority().toString());
         handlers = null;
         handlerslots.get(listener.getPriority()).add(listener);
+        listenerCount++;
+        synchronized (pluginLists) {
+            index(pluginLists, listener.getPlugin());
+            index(listenerLists, listener.getListener());
+        }
+    }
+
+    private <T> void index(Map<T, Set<HandlerList>> index, T key) {
+        Set<HandlerList> lists = index.get(key);
+        if (lists == null) {
+            lists = new LinkedHashSet<HandlerList>();
+            index.put(key, lists);
+        }
+        lists.add(this);
     }
 
     /**
@@ -130,6 +176,7 @@ public class HandlerList {
     public synchronized void unregister(RegisteredListener listener) {
         if (handlerslots.get(listener.getPriority()).remove(listener)) {
             handlers = null;
+            listenerCount--;
         }
     }
 
@@ -144,6 +191,7 @@ public class HandlerList {
             for (ListIterator<RegisteredListener> i = list.listIterator(); i.hasNext();) {
                 if (i.next().getPlugin().equals(plugin)) {
                     i.remove();
+                    listenerCount--;
                     changed = true;
                 }
             }
@@ -162,6 +210,7 @@ public class HandlerList {
             for (ListIterator<RegisteredListener> i = list.listIterator(); i.hasNext();) {
                 if (i.next().getListener().equals(listener)) {
                     i.remove();
+                    listenerCount--;
                     changed = true;
                 }
             }
@@ -171,18 +220,27 @@ public class HandlerList {
 
     /**
      * Bake HashMap and ArrayLists to 2d array - does nothing if not necessary
+     * <p>
+     * Listeners of plugins that are disabled are left out, so they do not
+     * need to be checked every time an event is called. A plugin's
+     * listeners are unregistered when it is disabled.
      */
     public synchronized void bake() {
         if (handlers != null) return; // don't re-bake when still valid
         List<RegisteredListener> entries = new ArrayList<RegisteredListener>();
         for (Entry<EventPriority, ArrayList<RegisteredListener>> entry : handlerslots.entrySet()) {
-            entries.addAll(entry.getValue());
+            for (RegisteredListener listener : entry.getValue()) {
+                if (listener.getPlugin().isEnabled()) {
+                    entries.add(listener);
+                }
+            }
         }
         handlers = entries.toArray(new RegisteredListener[entries.size()]);
     }
 
     /**
-     * Get the baked registered listeners associated with this handler list
+     * Get the baked registered listeners associated with this handler list,
+     * in priority order, leaving out listeners of disabled plugins
      *
      * @return the array of registered listeners
      */
@@ -192,6 +250,19 @@ public class HandlerList {
         return handlers;
     }
 
+    /**
+     * Checks if any listeners are registered in this handler list.
+     * <p>
+     * This does not bake the handler list, so it is cheap enough to call
+     * before constructing an event. Events that no listener will observe
+     * do not need to be created or called.
+     *
+     * @return true if at least one listener is registered
+     */
+    public boolean hasListeners() {
+        return listenerCount != 0;
+    }
+
     /**
      * Get a specific plugin's registered listeners associated with this
      * handler list
@@ -201,14 +272,20 @@ public class HandlerList {
      */
     public static ArrayList<RegisteredListener> getRegisteredListeners(Plugin plugin) {
         ArrayList<RegisteredListener> listeners = new ArrayList<RegisteredListener>();
-        synchronized (allLists) {
-            for (HandlerList h : allLists) {
-                synchronized (h) {
-                    for (List<RegisteredListener> list : h.handlerslots.values()) {
-                        for (RegisteredListener listener : list) {
-                            if (listener.getPlugin().equals(plugin)) {
-                                listeners.add(listener);
-                            }
+        List<HandlerList> lists;
+        synchronized (pluginLists) {
+            Set<HandlerList> indexed = pluginLists.get(plugin);
+            if (indexed == null) {
+                return listeners;
+            }
+            lists = new ArrayList<HandlerList>(indexed);
+        }
+        for (HandlerList h : lists) {
+            synchronized (h) {
+                for (List<RegisteredListener> list : h.handlerslots.values()) {
+                    for (RegisteredListener listener : list) {
+                        if (listener.getPlugin().equals(plugin)) {
+                            listeners.add(listener);
                         }
                     }
                 }
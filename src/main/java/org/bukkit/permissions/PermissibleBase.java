@@ -1,7 +1,10 @@
 package org.bukkit.permissions;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -9,15 +12,32 @@ import java.util.Set;
 import java.util.logging.Level;
 import org.bukkit.Bukkit;
 import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginManager;
 
 /**
  * Base Permissible for use in any Permissible object via proxy or extension
  */
 public class PermissibleBase implements Permissible {
+    /**
+     * System property that, when set to true, makes permissions ending in
+     * <code>.*</code> grant or deny every permission below them that is not
+     * set itself, and <code>*</code> every permission that is not set.
+     */
+    static final String WILDCARD_PROPERTY = "org.bukkit.permissions.wildcards";
+
     private ServerOperator opable = null;
     private Permissible parent = this;
     private final List<PermissionAttachment> attachments = new LinkedList<PermissionAttachment>();
-    private final Map<String, PermissionAttachmentInfo> permissions = new HashMap<String, PermissionAttachmentInfo>();
+    private volatile PermissionTable permissions = PermissionTable.EMPTY;
+    private volatile boolean wildcards = false;
+    // The attachments the permissions were calculated from, in order
+    private List<PermissionAttachment> calculatedFrom = Collections.emptyList();
+    private Boolean subscribedOp = null;
+    // Tables of each source, reused until the source changes
+    private long calculatedGeneration = -1;
+    private Set<Permission> calculatedDefaults = null;
+    private PermissionTable defaultPermissions = null;
+    private Map<PermissionAttachment, CalculatedAttachment> calculatedAttachments = new IdentityHashMap<PermissionAttachment, CalculatedAttachment>();
 
     public PermissibleBase(ServerOperator opable) {
         this.opable = opable;
@@ -50,7 +70,7 @@ public class PermissibleBase implements Permissible {
             throw new IllegalArgumentException("Permission name cannot be null");
         }
 
-        return permissions.containsKey(name.toLowerCase());
+        return permissions.get(name.toLowerCase()) != null;
     }
 
     public boolean isPermissionSet(Permission perm) {
@@ -58,7 +78,7 @@ public class PermissibleBase implements Permissible {
             throw new IllegalArgumentException("Permission cannot be null");
         }
 
-        return isPermissionSet(perm.getName());
+        return permissions.get(perm.getLowerName()) != null;
     }
 
     public boolean hasPermission(String inName) {
@@ -66,10 +86,24 @@ public class PermissibleBase implements Permissible {
             throw new IllegalArgumentException("Permission name cannot be null");
         }
 
-        String name = inName.toLowerCase();
+        PermissionTable permissions = this.permissions;
+        // Most names are already lower case, in which case they are only looked up once
+        String name = inName;
+        Boolean value = permissions.get(name);
+
+        if (value == null) {
+            name = inName.toLowerCase();
+            if (name != inName) {
+                value = permissions.get(name);
+            }
+        }
+
+        if (value == null && wildcards) {
+            value = permissions.getWildcard(name);
+        }
 
-        if (isPermissionSet(name)) {
-            return permissions.get(name).getValue();
+        if (value != null) {
+            return value;
         } else {
             Permission perm = Bukkit.getServer().getPluginManager().getPermission(name);
 
@@ -86,10 +120,15 @@ public class PermissibleBase implements Permissible {
             throw new IllegalArgumentException("Permission cannot be null");
         }
 
-        String name = perm.getName().toLowerCase();
+        PermissionTable permissions = this.permissions;
+        Boolean value = permissions.get(perm.getLowerName());
+
+        if (value == null && wildcards) {
+            value = permissions.getWildcard(perm.getLowerName());
+        }
 
-        if (isPermissionSet(name)) {
-            return permissions.get(name).getValue();
+        if (value != null) {
+            return value;
         }
         return perm.getDefault().getValue(isOp());
     }
@@ -145,25 +184,82 @@ public class PermissibleBase implements Permissible {
         }
     }
 
-    public void recalculatePermissions() {
-        clearPermissions();
-        Set<Permission> defaults = Bukkit.getServer().getPluginManager().getDefaultPermissions(isOp());
-        Bukkit.getServer().getPluginManager().subscribeToDefaultPerms(isOp(), parent);
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The permissions of the defaults and of each attachment are only
+     * calculated again when they have changed, and only the subscriptions of
+     * permissions that were added or removed are updated. Calculated
+     * permissions are immutable and shared with every other
+     * PermissibleBase that has the same defaults and attachments.
+     */
+    public synchronized void recalculatePermissions() {
+        PluginManager pluginManager = Bukkit.getServer().getPluginManager();
+        boolean op = isOp();
+
+        long generation = Permission.getGeneration();
+        if (generation != calculatedGeneration) {
+            // The children of a permission may have changed
+            calculatedGeneration = generation;
+            calculatedDefaults = null;
+            calculatedAttachments.clear();
+        }
 
-        for (Permission perm : defaults) {
-            String name = perm.getName().toLowerCase();
-            permissions.put(name, new PermissionAttachmentInfo(parent, name, null, true));
-            Bukkit.getServer().getPluginManager().subscribeToPermission(name, parent);
-            calculateChildPermissions(perm.getChildren(), false, null);
+        Set<Permission> defaults = pluginManager.getDefaultPermissions(op);
+        if (calculatedDefaults == null || !calculatedDefaults.equals(defaults)) {
+            defaultPermissions = PermissionTable.ofDefaults(generation, defaults);
+            calculatedDefaults = defaults;
         }
 
+        List<PermissionTable> parts = new ArrayList<PermissionTable>(attachments.size() + 1);
+        parts.add(defaultPermissions);
+        Map<PermissionAttachment, CalculatedAttachment> calculated = new IdentityHashMap<PermissionAttachment, CalculatedAttachment>();
+
         for (PermissionAttachment attachment : attachments) {
-            calculateChildPermissions(attachment.getPermissions(), false, attachment);
+            CalculatedAttachment entry = calculatedAttachments.get(attachment);
+
+            if (entry == null || entry.modifications != attachment.getModifications()) {
+                int modifications = attachment.getModifications();
+                entry = new CalculatedAttachment(modifications, PermissionTable.ofAttachment(generation, attachment.getPermissions()));
+            }
+
+            calculated.put(attachment, entry);
+            parts.add(entry.permissions);
+        }
+        calculatedAttachments = calculated;
+        calculatedFrom = new ArrayList<PermissionAttachment>(attachments);
+
+        PermissionTable result = PermissionTable.merge(parts);
+        PermissionTable previous = permissions;
+        // Interned, so an unchanged table is the same instance
+        if (result != previous) {
+            for (String name : previous.getPermissions().keySet()) {
+                if (result.get(name) == null) {
+                    pluginManager.unsubscribeFromPermission(name, parent);
+                }
+            }
+            for (String name : result.getPermissions().keySet()) {
+                if (previous.get(name) == null) {
+                    pluginManager.subscribeToPermission(name, parent);
+                }
+            }
+        }
+
+        if (subscribedOp == null || subscribedOp != op) {
+            if (subscribedOp != null) {
+                pluginManager.unsubscribeFromDefaultPerms(subscribedOp, parent);
+            }
+            pluginManager.subscribeToDefaultPerms(op, parent);
+            subscribedOp = op;
         }
+
+        permissions = result;
+        // Only look for wildcards when there are any to find
+        wildcards = result.hasWildcards() && Boolean.getBoolean(WILDCARD_PROPERTY);
     }
 
     public synchronized void clearPermissions() {
-        Set<String> perms = permissions.keySet();
+        Set<String> perms = permissions.getPermissions().keySet();
 
         for (String name : perms) {
             Bukkit.getServer().getPluginManager().unsubscribeFromPermission(name, parent);
@@ -172,24 +268,13 @@ public class PermissibleBase implements Permissible {
         Bukkit.getServer().getPluginManager().unsubscribeFromDefaultPerms(false, parent);
         Bukkit.getServer().getPluginManager().unsubscribeFromDefaultPerms(true, parent);
 
-        permissions.clear();
-    }
-
-    private void calculateChildPermissions(Map<String, Boolean> children, boolean invert, PermissionAttachment attachment) {
-        Set<String> keys = children.keySet();
-
-        for (String name : keys) {
-            Permission perm = Bukkit.getServer().getPluginManager().getPermission(name);
-            boolean value = children.get(name) ^ invert;
-            String lname = name.toLowerCase();
-
-            permissions.put(lname, new PermissionAttachmentInfo(parent, lname, attachment, value));
-            Bukkit.getServer().getPluginManager().subscribeToPermission(name, parent);
-
-            if (perm != null) {
-                calculateChildPermissions(perm.getChildren(), !value, attachment);
-            }
-        }
+        permissions = PermissionTable.EMPTY;
+        wildcards = false;
+        calculatedFrom = Collections.emptyList();
+        subscribedOp = null;
+        calculatedDefaults = null;
+        defaultPermissions = null;
+        calculatedAttachments.clear();
     }
 
     public PermissionAttachment addAttachment(Plugin plugin, String name, boolean value, int ticks) {
@@ -228,8 +313,30 @@ public class PermissibleBase implements Permissible {
         }
     }
 
-    public Set<PermissionAttachmentInfo> getEffectivePermissions() {
-        return new HashSet<PermissionAttachmentInfo>(permissions.values());
+    public synchronized Set<PermissionAttachmentInfo> getEffectivePermissions() {
+        Map<String, PermissionAttachmentInfo> result = new HashMap<String, PermissionAttachmentInfo>();
+        List<PermissionTable> parts = permissions.getParts();
+
+        // The first table is always the defaults, followed by one for each attachment
+        for (int i = 0; i < parts.size(); i++) {
+            PermissionAttachment attachment = i == 0 ? null : calculatedFrom.get(i - 1);
+
+            for (Map.Entry<String, Boolean> entry : parts.get(i).getPermissions().entrySet()) {
+                result.put(entry.getKey(), new PermissionAttachmentInfo(parent, entry.getKey(), attachment, entry.getValue()));
+            }
+        }
+
+        return new HashSet<PermissionAttachmentInfo>(result.values());
+    }
+
+    private static final class CalculatedAttachment {
+        private final int modifications;
+        private final PermissionTable permissions;
+
+        CalculatedAttachment(int modifications, PermissionTable permissions) {
+            this.modifications = modifications;
+            this.permissions = permissions;
+        }
     }
 
     private class RemoveAttachmentRunnable implements Runnable {
@@ -5,6 +5,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
 import org.apache.commons.lang.Validate;
@@ -17,8 +18,10 @@ import org.bukkit.plugin.PluginManager;
  */
 public class Permission {
     public static final PermissionDefault DEFAULT_PERMISSION = PermissionDefault.OP;
+    private static final AtomicLong generation = new AtomicLong();
 
     private final String name;
+    private final String lowerName;
     private final Map<String, Boolean> children = new LinkedHashMap<String, Boolean>();
     private PermissionDefault defaultValue = DEFAULT_PERMISSION;
     private String description;
@@ -53,6 +56,7 @@ public class Permission {
 
     public Permission(String name, String description, PermissionDefault defaultValue, Map<String, Boolean> children) {
         this.name = name;
+        this.lowerName = name.toLowerCase();
         this.description = (description == null) ? "" : description;
 
         if (defaultValue != null) {
@@ -75,6 +79,15 @@ public class Permission {
         return name;
     }
 
+    /**
+     * Gets the name of this Permission in lower case, as used for lookups
+     *
+     * @return Lower case name
+     */
+    String getLowerName() {
+        return lowerName;
+    }
+
     /**
      * Gets the children of this permission.
      * <p>
@@ -159,7 +172,9 @@ public class Permission {
      * automatically called after modifying the default value
      */
     public void recalculatePermissibles() {
-        Set<Permissible> perms = getPermissibles();
+        invalidateChildPermissions();
+        // A copy, since recalculating may change the subscriptions
+        List<Permissible> perms = new ArrayList<Permissible>(getPermissibles());
 
         Bukkit.getServer().getPluginManager().recalculatePermissionDefaults(this);
 
@@ -168,6 +183,32 @@ public class Permission {
         }
     }
 
+    /**
+     * Marks every permission calculated from the children of permissions as
+     * outdated, so {@link Permissible}s calculate them again when they are
+     * next recalculated.
+     * <p>
+     * {@link PluginManager}s call this when a permission is registered or
+     * removed, since its children are only looked up while registered.
+     */
+    public static void invalidateChildPermissions() {
+        generation.incrementAndGet();
+        PermissionTable.clearInterned();
+    }
+
+    /**
+     * Gets a counter that is only bumped by {@link
+     * #invalidateChildPermissions()}, which runs from {@link
+     * #recalculatePermissibles()} and when a permission is registered or
+     * removed. Permissions calculated from children may be reused for as
+     * long as it stays the same.
+     *
+     * @return the current generation
+     */
+    static long getGeneration() {
+        return generation.get();
+    }
+
     /**
      * Adds this permission to the specified parent permission.
      * <p>
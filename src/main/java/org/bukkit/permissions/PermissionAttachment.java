@@ -13,6 +13,7 @@ public class PermissionAttachment {
     private final Map<String, Boolean> permissions = new LinkedHashMap<String, Boolean>();
     private final Permissible permissible;
     private final Plugin plugin;
+    private int modifications = 0;
 
     public PermissionAttachment(Plugin plugin, Permissible Permissible) {
         if (plugin == null) {
@@ -76,6 +77,16 @@ public class PermissionAttachment {
         return new LinkedHashMap<String, Boolean>(permissions);
     }
 
+    /**
+     * Gets the number of times permissions have been set or unset on this
+     * attachment
+     *
+     * @return the number of modifications
+     */
+    int getModifications() {
+        return modifications;
+    }
+
     /**
      * Sets a permission to the given value, by its fully qualified name
      *
@@ -84,6 +95,7 @@ public class PermissionAttachment {
      */
     public void setPermission(String name, boolean value) {
         permissions.put(name.toLowerCase(), value);
+        modifications++;
         permissible.recalculatePermissions();
     }
 
@@ -107,6 +119,7 @@ public class PermissionAttachment {
      */
     public void unsetPermission(String name) {
         permissions.remove(name.toLowerCase());
+        modifications++;
         permissible.recalculatePermissions();
     }
 
@@ -0,0 +1,266 @@
+package org.bukkit.permissions;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import org.bukkit.Bukkit;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.MapMaker;
+
+/**
+ * An immutable set of calculated permission values.
+ * <p>
+ * Tables are interned by what they were calculated from, so every
+ * {@link PermissibleBase} with the same defaults and attachments shares the
+ * same table. A table is either calculated from a single source, the
+ * default permissions or the permissions of one attachment, or merged from
+ * several tables, of which later ones take precedence.
+ */
+final class PermissionTable {
+    static final PermissionTable EMPTY = new PermissionTable(Collections.<PermissionTable>emptyList(), ImmutableMap.<String, Boolean>of());
+
+    private static final ConcurrentMap<List<?>, PermissionTable> defaultTables = new MapMaker().weakValues().makeMap();
+    private static final ConcurrentMap<List<?>, PermissionTable> attachmentTables = new MapMaker().weakValues().makeMap();
+    private static final ConcurrentMap<List<PermissionTable>, PermissionTable> mergedTables = new MapMaker().weakValues().makeMap();
+
+    private final List<PermissionTable> parts;
+    private final Map<String, Boolean> permissions;
+    private final boolean wildcards;
+    // Open addressing index of the prefixes of wildcard permissions, such
+    // as "a.b." for "a.b.*", so they are found without building names
+    private final String[] wildcardPrefixes;
+    private final int[] wildcardHashes;
+    private final boolean[] wildcardValues;
+    private final Boolean allWildcard;
+
+    private PermissionTable(List<PermissionTable> parts, Map<String, Boolean> permissions) {
+        this.parts = parts;
+        this.permissions = permissions;
+
+        int count = 0;
+        boolean wildcards = false;
+        for (String name : permissions.keySet()) {
+            if (name.endsWith("*")) {
+                wildcards = true;
+                if (name.endsWith(".*")) {
+                    count++;
+                }
+            }
+        }
+        this.wildcards = wildcards;
+
+        int size = Integer.highestOneBit(Math.max(count, 1) * 4 - 1);
+        wildcardPrefixes = new String[count == 0 ? 0 : size];
+        wildcardHashes = new int[wildcardPrefixes.length];
+        wildcardValues = new boolean[wildcardPrefixes.length];
+        if (count > 0) {
+            for (Map.Entry<String, Boolean> entry : permissions.entrySet()) {
+                String name = entry.getKey();
+                if (name.endsWith(".*") && name.length() > 2) {
+                    String prefix = name.substring(0, name.length() - 1);
+                    int hash = prefix.hashCode();
+                    int index = mix(hash) & (wildcardPrefixes.length - 1);
+                    while (wildcardPrefixes[index] != null) {
+                        index = (index + 1) & (wildcardPrefixes.length - 1);
+                    }
+                    wildcardPrefixes[index] = prefix;
+                    wildcardHashes[index] = hash;
+                    wildcardValues[index] = entry.getValue();
+                }
+            }
+        }
+        allWildcard = permissions.get("*");
+    }
+
+    /**
+     * Gets the value of a permission
+     *
+     * @param name lower case name of the permission
+     * @return the value, or null if the permission is not set
+     */
+    Boolean get(String name) {
+        return permissions.get(name);
+    }
+
+    /**
+     * Finds the closest wildcard permission that is set above the given
+     * permission, such as <code>a.b.*</code>, then <code>a.*</code>, then
+     * <code>*</code> for <code>a.b.c</code>. Nothing is allocated.
+     *
+     * @param name lower case name of the permission
+     * @return the value of the wildcard, or null if none is set
+     */
+    Boolean getWildcard(String name) {
+        Boolean value = null;
+
+        if (wildcardPrefixes.length > 0) {
+            int hash = 0;
+            // The hash of each prefix is the hash of the one before, continued
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                hash = 31 * hash + c;
+                if (c == '.' && i > 0) {
+                    int index = findPrefix(name, i + 1, hash);
+                    if (index != -1) {
+                        value = wildcardValues[index];
+                    }
+                }
+            }
+        }
+
+        return value != null ? value : allWildcard;
+    }
+
+    private int findPrefix(String name, int length, int hash) {
+        int mask = wildcardPrefixes.length - 1;
+        for (int index = mix(hash) & mask; wildcardPrefixes[index] != null; index = (index + 1) & mask) {
+            String prefix = wildcardPrefixes[index];
+            if (wildcardHashes[index] == hash && prefix.length() == length && name.regionMatches(0, prefix, 0, length)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private static int mix(int hash) {
+        hash ^= (hash >>> 16);
+        return hash * 0x85EBCA6B;
+    }
+
+    /**
+     * Gets every permission that is set, with its value
+     *
+     * @return the permissions
+     */
+    Map<String, Boolean> getPermissions() {
+        return permissions;
+    }
+
+    /**
+     * Gets the tables this table was merged from, in order
+     *
+     * @return the merged tables, or this table alone if it has a single
+     *     source
+     */
+    List<PermissionTable> getParts() {
+        return parts.isEmpty() ? Collections.singletonList(this) : parts;
+    }
+
+    /**
+     * Gets whether any permission in this table ends in <code>*</code>
+     *
+     * @return true if there are wildcard permissions
+     */
+    boolean hasWildcards() {
+        return wildcards;
+    }
+
+    /**
+     * Gets the table calculated from default permissions
+     *
+     * @param generation the current {@link Permission#getGeneration()}
+     * @param defaults the default permissions
+     * @return the table
+     */
+    static PermissionTable ofDefaults(long generation, Collection<Permission> defaults) {
+        List<?> key = Arrays.asList(generation, ImmutableList.copyOf(defaults));
+        PermissionTable table = defaultTables.get(key);
+
+        if (table == null) {
+            Map<String, Boolean> permissions = new LinkedHashMap<String, Boolean>();
+            for (Permission perm : defaults) {
+                permissions.put(perm.getLowerName(), true);
+                calculateChildPermissions(permissions, perm.getChildren(), false);
+            }
+            table = intern(defaultTables, key, permissions);
+        }
+
+        return table;
+    }
+
+    /**
+     * Gets the table calculated from the permissions of an attachment
+     *
+     * @param generation the current {@link Permission#getGeneration()}
+     * @param attachment the permissions of the attachment
+     * @return the table
+     */
+    static PermissionTable ofAttachment(long generation, Map<String, Boolean> attachment) {
+        List<?> key = Arrays.asList(generation, ImmutableList.copyOf(attachment.entrySet()));
+        PermissionTable table = attachmentTables.get(key);
+
+        if (table == null) {
+            Map<String, Boolean> permissions = new LinkedHashMap<String, Boolean>();
+            calculateChildPermissions(permissions, attachment, false);
+            table = intern(attachmentTables, key, permissions);
+        }
+
+        return table;
+    }
+
+    /**
+     * Gets the table merged from the given tables
+     *
+     * @param parts the tables to merge, later ones taking precedence
+     * @return the table
+     */
+    static PermissionTable merge(List<PermissionTable> parts) {
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+
+        PermissionTable table = mergedTables.get(parts);
+
+        if (table == null) {
+            Map<String, Boolean> permissions = new LinkedHashMap<String, Boolean>();
+            for (PermissionTable part : parts) {
+                permissions.putAll(part.permissions);
+            }
+            PermissionTable merged = new PermissionTable(ImmutableList.copyOf(parts), ImmutableMap.copyOf(permissions));
+            table = mergedTables.putIfAbsent(merged.parts, merged);
+            if (table == null) {
+                table = merged;
+            }
+        }
+
+        return table;
+    }
+
+    /**
+     * Forgets the interned tables calculated from defaults and attachments,
+     * whose children may have changed. Tables calculated meanwhile are still
+     * told apart by their generation.
+     */
+    static void clearInterned() {
+        defaultTables.clear();
+        attachmentTables.clear();
+        mergedTables.clear();
+    }
+
+    private static <K> PermissionTable intern(ConcurrentMap<K, PermissionTable> tables, K key, Map<String, Boolean> permissions) {
+        PermissionTable table = new PermissionTable(Collections.<PermissionTable>emptyList(), ImmutableMap.copyOf(permissions));
+        PermissionTable existing = tables.putIfAbsent(key, table);
+        return existing == null ? table : existing;
+    }
+
+    private static void calculateChildPermissions(Map<String, Boolean> permissions, Map<String, Boolean> children, boolean invert) {
+        for (Map.Entry<String, Boolean> entry : children.entrySet()) {
+            String name = entry.getKey();
+            Permission perm = Bukkit.getServer().getPluginManager().getPermission(name);
+            boolean value = entry.getValue() ^ invert;
+
+            permissions.put(name.toLowerCase(), value);
+
+            if (perm != null) {
+                calculateChildPermissions(permissions, perm.getChildren(), !value);
+            }
+        }
+    }
+}
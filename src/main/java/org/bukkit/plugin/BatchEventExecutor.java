@@ -0,0 +1,27 @@
+package org.bukkit.plugin;
+
+import java.util.List;
+
+import org.bukkit.event.Event;
+import org.bukkit.event.EventException;
+import org.bukkit.event.Listener;
+
+/**
+ * An EventExecutor that can handle a batch of events in a single call.
+ * <p>
+ * Events called through {@link PluginManager#callEvents(List)} are passed
+ * to {@link #execute(Listener, List)} together, while events called one by
+ * one are passed to {@link #execute(Listener, Event)}.
+ */
+public interface BatchEventExecutor extends EventExecutor {
+
+    /**
+     * Handles a batch of events. The list is never empty, and should not be
+     * modified or kept once this method returns.
+     *
+     * @param listener Listener to call
+     * @param events Events to handle, in order
+     * @throws EventException If an event handler throws an exception.
+     */
+    public void execute(Listener listener, List<? extends Event> events) throws EventException;
+}
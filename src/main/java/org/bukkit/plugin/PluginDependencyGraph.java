@@ -0,0 +1,225 @@
+package org.bukkit.plugin;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Resolves the order plugins are loaded in from their <code>depend</code>,
+ * <code>softdepend</code> and <code>loadbefore</code> entries.
+ * <p>
+ * The order is computed up front with Kahn's algorithm. Whenever several
+ * plugins are ready to load, they are taken in name order, so the plan does
+ * not depend on directory listing or hash ordering. When only soft
+ * dependencies keep the remaining plugins from loading, the first of them
+ * without outstanding hard dependencies has its soft dependencies dropped.
+ * Plugins left after that are reported as circular.
+ */
+final class PluginDependencyGraph {
+    private final Map<String, Set<String>> dependencies = new HashMap<String, Set<String>>();
+    private final Map<String, Set<String>> softDependencies = new HashMap<String, Set<String>>();
+
+    private final List<String> loadOrder = new ArrayList<String>();
+    private final Map<String, Integer> levels = new HashMap<String, Integer>();
+    private final Map<String, String> unknownDependencies = new LinkedHashMap<String, String>();
+    private final Set<String> circularDependencies = new TreeSet<String>();
+    private boolean resolved = false;
+
+    /**
+     * Adds a plugin to the graph. Adding a plugin with the same name again
+     * replaces its hard dependencies and adds to its soft dependencies.
+     *
+     * @param name name of the plugin
+     * @param depend hard dependencies of the plugin
+     * @param softDepend soft dependencies of the plugin
+     * @param loadBefore plugins that should be loaded after this one
+     */
+    void addPlugin(String name, Collection<String> depend, Collection<String> softDepend, Collection<String> loadBefore) {
+        Validate.isTrue(!resolved, "Graph has already been resolved");
+
+        dependencies.put(name, new TreeSet<String>(depend));
+        getSoftDependencies(name).addAll(softDepend);
+        for (String target : loadBefore) {
+            // Targets that are never added are ignored when resolving
+            getSoftDependencies(target).add(name);
+        }
+    }
+
+    private Set<String> getSoftDependencies(String name) {
+        Set<String> set = softDependencies.get(name);
+        if (set == null) {
+            set = new TreeSet<String>();
+            softDependencies.put(name, set);
+        }
+        return set;
+    }
+
+    /**
+     * Computes the load plan. This may only be called once.
+     */
+    void resolve() {
+        Validate.isTrue(!resolved, "Graph has already been resolved");
+        resolved = true;
+
+        Set<String> remaining = new TreeSet<String>(dependencies.keySet());
+
+        // Drop plugins with a missing hard dependency, and then their dependents
+        boolean removed;
+        do {
+            removed = false;
+            for (Iterator<String> iterator = remaining.iterator(); iterator.hasNext();) {
+                String plugin = iterator.next();
+                for (String dependency : dependencies.get(plugin)) {
+                    if (!remaining.contains(dependency)) {
+                        unknownDependencies.put(plugin, dependency);
+                        iterator.remove();
+                        removed = true;
+                        break;
+                    }
+                }
+            }
+        } while (removed);
+
+        Map<String, Set<String>> waiting = new HashMap<String, Set<String>>();
+        Map<String, Set<String>> dependents = new HashMap<String, Set<String>>();
+        TreeSet<String> ready = new TreeSet<String>();
+        for (String plugin : remaining) {
+            dependents.put(plugin, new TreeSet<String>());
+        }
+        for (String plugin : remaining) {
+            Set<String> edges = new TreeSet<String>(dependencies.get(plugin));
+            Set<String> soft = softDependencies.get(plugin);
+            if (soft != null) {
+                for (String dependency : soft) {
+                    if (remaining.contains(dependency)) {
+                        edges.add(dependency);
+                    }
+                }
+            }
+            for (String dependency : edges) {
+                dependents.get(dependency).add(plugin);
+            }
+            waiting.put(plugin, edges);
+            levels.put(plugin, 0);
+            if (edges.isEmpty()) {
+                ready.add(plugin);
+            }
+        }
+
+        while (!remaining.isEmpty()) {
+            if (ready.isEmpty()) {
+                String candidate = null;
+                for (String plugin : remaining) {
+                    if (Collections.disjoint(waiting.get(plugin), dependencies.get(plugin))) {
+                        candidate = plugin;
+                        break;
+                    }
+                }
+
+                if (candidate == null) {
+                    circularDependencies.addAll(remaining);
+                    for (String plugin : remaining) {
+                        levels.remove(plugin);
+                    }
+                    break;
+                }
+
+                // Only soft dependencies are left; load without them
+                for (String dependency : waiting.get(candidate)) {
+                    dependents.get(dependency).remove(candidate);
+                }
+                waiting.get(candidate).clear();
+                ready.add(candidate);
+            }
+
+            String plugin = ready.pollFirst();
+            remaining.remove(plugin);
+            loadOrder.add(plugin);
+
+            int level = levels.get(plugin) + 1;
+            for (String dependent : dependents.get(plugin)) {
+                if (levels.get(dependent) < level) {
+                    levels.put(dependent, level);
+                }
+                Set<String> edges = waiting.get(dependent);
+                edges.remove(plugin);
+                if (edges.isEmpty()) {
+                    ready.add(dependent);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the hard dependencies of a plugin
+     *
+     * @param name name of the plugin
+     * @return the hard dependencies, or an empty set if the plugin is unknown
+     */
+    Set<String> getDependencies(String name) {
+        Set<String> set = dependencies.get(name);
+        return set == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(set);
+    }
+
+    /**
+     * Gets the order plugins should be loaded in
+     *
+     * @return the names of all loadable plugins, in load order
+     */
+    List<String> getLoadOrder() {
+        Validate.isTrue(resolved, "Graph has not been resolved");
+        return Collections.unmodifiableList(loadOrder);
+    }
+
+    /**
+     * Gets the load order split into groups. No plugin depends, hard or soft,
+     * on a plugin of its own or a later group, so the plugins within one
+     * group are independent of each other. Soft dependencies dropped to break
+     * a cycle are the only exception.
+     *
+     * @return the groups of plugin names, in load order
+     */
+    List<List<String>> getLoadGroups() {
+        Validate.isTrue(resolved, "Graph has not been resolved");
+        List<List<String>> groups = new ArrayList<List<String>>();
+        for (String plugin : loadOrder) {
+            int level = levels.get(plugin);
+            while (groups.size() <= level) {
+                groups.add(new ArrayList<String>());
+            }
+            groups.get(level).add(plugin);
+        }
+        return groups;
+    }
+
+    /**
+     * Gets the plugins that cannot be loaded because a hard dependency is
+     * missing or cannot be loaded itself
+     *
+     * @return map of each such plugin to the dependency it is missing
+     */
+    Map<String, String> getUnknownDependencies() {
+        Validate.isTrue(resolved, "Graph has not been resolved");
+        return Collections.unmodifiableMap(unknownDependencies);
+    }
+
+    /**
+     * Gets the plugins that cannot be loaded because of a cycle of hard
+     * dependencies, including the plugins depending on such a cycle
+     *
+     * @return the names of the plugins, in name order
+     */
+    Set<String> getCircularDependencies() {
+        Validate.isTrue(resolved, "Graph has not been resolved");
+        return Collections.unmodifiableSet(circularDependencies);
+    }
+}
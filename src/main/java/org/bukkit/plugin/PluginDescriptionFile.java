@@ -1,10 +1,14 @@
 package org.bukkit.plugin;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
+import java.io.StringReader;
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -17,10 +21,18 @@ import org.bukkit.permissions.Permissible;
 import org.bukkit.permissions.Permission;
 import org.bukkit.permissions.PermissionDefault;
 import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.composer.Composer;
 import org.yaml.snakeyaml.constructor.AbstractConstruct;
 import org.yaml.snakeyaml.constructor.SafeConstructor;
+import org.yaml.snakeyaml.error.YAMLException;
+import org.yaml.snakeyaml.events.Event;
+import org.yaml.snakeyaml.events.NodeEvent;
+import org.yaml.snakeyaml.events.ScalarEvent;
 import org.yaml.snakeyaml.nodes.Node;
 import org.yaml.snakeyaml.nodes.Tag;
+import org.yaml.snakeyaml.parser.Parser;
+import org.yaml.snakeyaml.reader.UnicodeReader;
+import org.yaml.snakeyaml.resolver.Resolver;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -88,6 +100,10 @@ import com.google.common.collect.ImmutableSet;
  *     <td>{@link #isDatabaseEnabled()}</td>
  *     <td>Indicator to enable database support</td>
  * </tr><tr>
+ *     <td><code>lazy</code></td>
+ *     <td>{@link #isLazy()}</td>
+ *     <td>Indicator to defer enabling until a command is used</td>
+ * </tr><tr>
  *     <td><code>load</code></td>
  *     <td>{@link #getLoad()}</td>
  *     <td>The phase of server-startup this plugin will load during</td>
@@ -175,10 +191,10 @@ import com.google.common.collect.ImmutableSet;
  *</pre></blockquote>
  */
 public final class PluginDescriptionFile {
-    private static final ThreadLocal<Yaml> YAML = new ThreadLocal<Yaml>() {
+    private static final ThreadLocal<SafeConstructor> CONSTRUCTOR = new ThreadLocal<SafeConstructor>() {
         @Override
-        protected Yaml initialValue() {
-            return new Yaml(new SafeConstructor() {
+        protected SafeConstructor initialValue() {
+            return new SafeConstructor() {
                 {
                     yamlConstructors.put(null, new AbstractConstruct() {
                         @Override
@@ -205,7 +221,13 @@ public final class PluginDescriptionFile {
                         });
                     }
                 }
-            });
+            };
+        }
+    };
+    private static final ThreadLocal<Yaml> YAML = new ThreadLocal<Yaml>() {
+        @Override
+        protected Yaml initialValue() {
+            return new Yaml(CONSTRUCTOR.get());
         }
     };
     String rawName = null;
@@ -222,14 +244,16 @@ public final class PluginDescriptionFile {
     private String website = null;
     private String prefix = null;
     private boolean database = false;
+    private boolean lazy = false;
     private PluginLoadOrder order = PluginLoadOrder.POSTWORLD;
-    private List<Permission> permissions = null;
+    private volatile List<Permission> permissions = null;
     private Map<?, ?> lazyPermissions = null;
+    private List<Event> lazyPermissionEvents = null;
     private PermissionDefault defaultPerm = PermissionDefault.OP;
     private Set<PluginAwareness> awareness = ImmutableSet.of();
 
     public PluginDescriptionFile(final InputStream stream) throws InvalidDescriptionException {
-        loadMap(asMap(YAML.get().load(stream)));
+        this(new UnicodeReader(stream));
     }
 
     /**
@@ -240,7 +264,7 @@ public final class PluginDescriptionFile {
      *     invalid
      */
     public PluginDescriptionFile(final Reader reader) throws InvalidDescriptionException {
-        loadMap(asMap(YAML.get().load(reader)));
+        load(reader);
     }
 
     /**
@@ -446,6 +470,28 @@ public final class PluginDescriptionFile {
         return database;
     }
 
+    /**
+     * Gives if the plugin is enabled lazily.
+     * <ul>
+     * <li>A lazy plugin is loaded at startup and its commands are
+     *     registered, but it is only enabled when one of its commands is
+     *     first dispatched, or when a plugin depending on it is enabled.
+     * <li>Services and listeners of a lazy plugin are not available until it
+     *     has been enabled.
+     * <li>Valid values include <code>true</code> and <code>false</code>
+     * </ul>
+     * <p>
+     * In the plugin.yml, this entry is named <code>lazy</code>.
+     * <p>
+     * Example:
+     * <blockquote><pre>lazy: true</pre></blockquote>
+     *
+     * @return if this plugin is enabled lazily
+     */
+    public boolean isLazy() {
+        return lazy;
+    }
+
     /**
      * Gives a list of other plugins that the plugin requires.
      * <ul>
@@ -776,9 +822,32 @@ public final class PluginDescriptionFile {
      *</pre></blockquote>
      * Another example, with nested definitions, can be found <a
      * href="doc-files/permissions-example_plugin.yml">here</a>.
+     * <p>
+     * The permissions are only constructed when this is first called. The
+     * section was checked to be a map of maps when this description was
+     * loaded, but its values are not checked until then.
+     *
+     * @return the permissions this plugin will register
+     * @throws IllegalArgumentException if a permission node is invalid
+     * @throws IllegalStateException if the permissions section cannot be
+     *     constructed
      */
     public List<Permission> getPermissions() {
+        List<Permission> permissions = this.permissions;
+        return permissions != null ? permissions : constructPermissions();
+    }
+
+    private synchronized List<Permission> constructPermissions() {
         if (permissions == null) {
+            if (lazyPermissionEvents != null) {
+                try {
+                    lazyPermissions = (Map<?, ?>) construct(lazyPermissionEvents);
+                } catch (RuntimeException ex) {
+                    // YAMLException, and whatever the constructors of scalar types throw
+                    throw new IllegalStateException("Permissions in plugin description file for " + getFullName() + " cannot be constructed", ex);
+                }
+                lazyPermissionEvents = null;
+            }
             if (lazyPermissions == null) {
                 permissions = ImmutableList.<Permission>of();
             } else {
@@ -881,6 +950,187 @@ public final class PluginDescriptionFile {
         YAML.get().dump(saveMap(), writer);
     }
 
+    /**
+     * Reads the description from the YAML parser's events. The events of
+     * the permissions section are set aside, to be constructed when {@link
+     * #getPermissions()} is first called; the other entries are constructed
+     * from the remaining events. Documents using anchors or aliases are
+     * loaded whole, since an alias may cross into a section set aside.
+     */
+    private void load(final Reader reader) throws InvalidDescriptionException {
+        String text = read(reader);
+        List<Event> events = new ArrayList<Event>();
+        List<Event> permissionEvents = null;
+
+        Iterator<Event> parser = YAML.get().parse(new StringReader(text)).iterator();
+        int depth = 0;
+        boolean key = true;
+        while (parser.hasNext()) {
+            Event event = parser.next();
+            if (isAnchored(event)) {
+                loadMap(asMap(YAML.get().load(text)));
+                return;
+            }
+
+            if (depth == 1 && key && event.is(Event.ID.Scalar) && "permissions".equals(((ScalarEvent) event).getValue())) {
+                permissionEvents = null;
+
+                Event value = parser.next();
+                if (value.is(Event.ID.MappingStart)) {
+                    List<Event> section = readSection(value, parser);
+                    if (section == null) {
+                        loadMap(asMap(YAML.get().load(text)));
+                        return;
+                    }
+                    if (!hasMappingValues(section)) {
+                        throw new InvalidDescriptionException("permissions are of the wrong type");
+                    }
+
+                    permissionEvents = section;
+                    continue;
+                }
+
+                // Anything else is left to loadMap, which reports the wrong type
+                events.add(event);
+                key = false;
+                event = value;
+                if (isAnchored(event)) {
+                    loadMap(asMap(YAML.get().load(text)));
+                    return;
+                }
+            }
+
+            events.add(event);
+            if (event.is(Event.ID.MappingStart) || event.is(Event.ID.SequenceStart)) {
+                if (++depth == 1) {
+                    key = true;
+                }
+            } else if (event.is(Event.ID.MappingEnd) || event.is(Event.ID.SequenceEnd)) {
+                if (--depth == 1) {
+                    key = !key;
+                }
+            } else if (depth == 1 && event.is(Event.ID.Scalar)) {
+                key = !key;
+            }
+        }
+
+        loadMap(asMap(construct(events)));
+        lazyPermissionEvents = toDocument(permissionEvents, events);
+    }
+
+    private static boolean isAnchored(Event event) {
+        return event.is(Event.ID.Alias) || (event instanceof NodeEvent && ((NodeEvent) event).getAnchor() != null);
+    }
+
+    /**
+     * Reads the events of a collection, from its start event to the
+     * matching end event
+     *
+     * @return the events, or null if the collection uses anchors or aliases
+     */
+    private static List<Event> readSection(Event start, Iterator<Event> parser) {
+        List<Event> section = new ArrayList<Event>();
+        section.add(start);
+        for (int nested = 1; nested > 0;) {
+            Event event = parser.next();
+            if (isAnchored(event)) {
+                return null;
+            }
+            if (event.is(Event.ID.MappingStart) || event.is(Event.ID.SequenceStart)) {
+                nested++;
+            } else if (event.is(Event.ID.MappingEnd) || event.is(Event.ID.SequenceEnd)) {
+                nested--;
+            }
+            section.add(event);
+        }
+        return section;
+    }
+
+    /**
+     * Checks that every value of a mapping is a mapping, as every
+     * permission node must be
+     */
+    private static boolean hasMappingValues(List<Event> section) {
+        int depth = 0;
+        boolean key = true;
+        for (Event event : section.subList(1, section.size() - 1)) {
+            if (depth == 0 && !key && !event.is(Event.ID.MappingStart)) {
+                return false;
+            }
+            if (event.is(Event.ID.MappingStart) || event.is(Event.ID.SequenceStart)) {
+                depth++;
+            } else if (event.is(Event.ID.MappingEnd) || event.is(Event.ID.SequenceEnd)) {
+                depth--;
+            }
+            if (depth == 0) {
+                key = !key;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Wraps the events of a section in the stream and document events of
+     * the document it was read from, so it can be constructed on its own
+     */
+    private static List<Event> toDocument(List<Event> section, List<Event> document) {
+        if (section == null) {
+            return null;
+        }
+
+        List<Event> events = new ArrayList<Event>(section.size() + 4);
+        events.add(document.get(0));
+        events.add(document.get(1));
+        events.addAll(section);
+        events.add(document.get(document.size() - 2));
+        events.add(document.get(document.size() - 1));
+        return events;
+    }
+
+    private static Object construct(List<Event> events) {
+        SafeConstructor constructor = CONSTRUCTOR.get();
+        constructor.setComposer(new Composer(new BufferedParser(events), new Resolver()));
+        return constructor.getSingleData(Object.class);
+    }
+
+    private static String read(Reader reader) {
+        try {
+            StringBuilder builder = new StringBuilder();
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                builder.append(buffer, 0, read);
+            }
+            return builder.toString();
+        } catch (IOException ex) {
+            throw new YAMLException(ex);
+        }
+    }
+
+    /**
+     * Replays buffered parser events
+     */
+    private static final class BufferedParser implements Parser {
+        private final List<Event> events;
+        private int index = 0;
+
+        BufferedParser(List<Event> events) {
+            this.events = events;
+        }
+
+        public boolean checkEvent(Event.ID choice) {
+            return index < events.size() && events.get(index).is(choice);
+        }
+
+        public Event peekEvent() {
+            return index < events.size() ? events.get(index) : null;
+        }
+
+        public Event getEvent() {
+            return events.get(index++);
+        }
+    }
+
     private void loadMap(Map<?, ?> map) throws InvalidDescriptionException {
         try {
             name = rawName = map.get("name").toString();
@@ -915,32 +1165,11 @@ public final class PluginDescriptionFile {
         }
 
         if (map.get("commands") != null) {
-            ImmutableMap.Builder<String, Map<String, Object>> commandsBuilder = ImmutableMap.<String, Map<String, Object>>builder();
             try {
-                for (Map.Entry<?, ?> command : ((Map<?, ?>) map.get("commands")).entrySet()) {
-                    ImmutableMap.Builder<String, Object> commandBuilder = ImmutableMap.<String, Object>builder();
-                    if (command.getValue() != null) {
-                        for (Map.Entry<?, ?> commandEntry : ((Map<?, ?>) command.getValue()).entrySet()) {
-                            if (commandEntry.getValue() instanceof Iterable) {
-                                // This prevents internal alias list changes
-                                ImmutableList.Builder<Object> commandSubList = ImmutableList.<Object>builder();
-                                for (Object commandSubListItem : (Iterable<?>) commandEntry.getValue()) {
-                                    if (commandSubListItem != null) {
-                                        commandSubList.add(commandSubListItem);
-                                    }
-                                }
-                                commandBuilder.put(commandEntry.getKey().toString(), commandSubList.build());
-                            } else if (commandEntry.getValue() != null) {
-                                commandBuilder.put(commandEntry.getKey().toString(), commandEntry.getValue());
-                            }
-                        }
-                    }
-                    commandsBuilder.put(command.getKey().toString(), commandBuilder.build());
-                }
+                commands = loadCommands((Map<?, ?>) map.get("commands"));
             } catch (ClassCastException ex) {
                 throw new InvalidDescriptionException(ex, "commands are of wrong type");
             }
-            commands = commandsBuilder.build();
         }
 
         if (map.get("class-loader-of") != null) {
@@ -959,6 +1188,14 @@ public final class PluginDescriptionFile {
             }
         }
 
+        if (map.get("lazy") != null) {
+            try {
+                lazy = (Boolean) map.get("lazy");
+            } catch (ClassCastException ex) {
+                throw new InvalidDescriptionException(ex, "lazy is of wrong type");
+            }
+        }
+
         if (map.get("website") != null) {
             website = map.get("website").toString();
         }
@@ -1031,6 +1268,31 @@ public final class PluginDescriptionFile {
         }
     }
 
+    private static Map<String, Map<String, Object>> loadCommands(final Map<?, ?> map) throws ClassCastException {
+        ImmutableMap.Builder<String, Map<String, Object>> commandsBuilder = ImmutableMap.<String, Map<String, Object>>builder();
+        for (Map.Entry<?, ?> command : map.entrySet()) {
+            ImmutableMap.Builder<String, Object> commandBuilder = ImmutableMap.<String, Object>builder();
+            if (command.getValue() != null) {
+                for (Map.Entry<?, ?> commandEntry : ((Map<?, ?>) command.getValue()).entrySet()) {
+                    if (commandEntry.getValue() instanceof Iterable) {
+                        // This prevents internal alias list changes
+                        ImmutableList.Builder<Object> commandSubList = ImmutableList.<Object>builder();
+                        for (Object commandSubListItem : (Iterable<?>) commandEntry.getValue()) {
+                            if (commandSubListItem != null) {
+                                commandSubList.add(commandSubListItem);
+                            }
+                        }
+                        commandBuilder.put(commandEntry.getKey().toString(), commandSubList.build());
+                    } else if (commandEntry.getValue() != null) {
+                        commandBuilder.put(commandEntry.getKey().toString(), commandEntry.getValue());
+                    }
+                }
+            }
+            commandsBuilder.put(command.getKey().toString(), commandBuilder.build());
+        }
+        return commandsBuilder.build();
+    }
+
     private static List<String> makePluginNameList(final Map<?, ?> map, final String key) throws InvalidDescriptionException {
         final Object value = map.get(key);
         if (value == null) {
@@ -1057,11 +1319,12 @@ public final class PluginDescriptionFile {
         map.put("main", main);
         map.put("version", version);
         map.put("database", database);
+        map.put("lazy", lazy);
         map.put("order", order.toString());
         map.put("default-permission", defaultPerm.toString());
 
-        if (commands != null) {
-            map.put("command", commands);
+        if (getCommands() != null) {
+            map.put("command", getCommands());
         }
         if (depend != null) {
             map.put("depend", depend);
@@ -1,6 +1,7 @@
 package org.bukkit.plugin;
 
 import java.io.File;
+import java.util.List;
 import java.util.Set;
 
 import org.bukkit.event.Event;
@@ -104,6 +105,29 @@ public interface PluginManager {
      */
     public void callEvent(Event event) throws IllegalStateException;
 
+    /**
+     * Calls a batch of events.
+     * <p>
+     * Consecutive events sharing a {@link org.bukkit.event.HandlerList} are
+     * dispatched listener by listener: each listener is called for every
+     * event in the run before the next listener is called, and a listener
+     * with a {@link BatchEventExecutor}, such as an {@link
+     * org.bukkit.event.EventHandler} method taking a list of events, is
+     * called once with the whole run. Every event still reaches its
+     * listeners in priority order, but a listener may see an event before a
+     * lower priority listener has seen an earlier event of the batch. Only
+     * events that do not depend on one another, such as the blocks broken by
+     * a single explosion, should be batched.
+     *
+     * @param events Events to call, in order
+     * @throws IllegalStateException Thrown when an asynchronous event is
+     *     fired from synchronous code.
+     *     <p>
+     *     <i>Note: This is best-effort basis, and should not be used to test
+     *     synchronized state. This is an indicator for flawed flow logic.</i>
+     */
+    public void callEvents(List<? extends Event> events) throws IllegalStateException;
+
     /**
      * Registers all the events in the given listener class
      *
@@ -242,6 +266,12 @@ public interface PluginManager {
     /**
      * Gets a set containing all subscribed {@link Permissible}s to the given
      * permission, by name
+     * <p>
+     * The set may be a view of the subscriptions, which is weakly
+     * consistent: it may be iterated while Permissibles subscribe and
+     * unsubscribe, and may or may not reflect those changes. Callers that
+     * recalculate the Permissibles, which may change their subscriptions,
+     * should iterate over a copy.
      *
      * @param permission Permission to query for
      * @return Set containing all subscribed permissions
@@ -270,6 +300,9 @@ public interface PluginManager {
     /**
      * Gets a set containing all subscribed {@link Permissible}s to the given
      * default list, by op status
+     * <p>
+     * Like {@link #getPermissionSubscriptions(String)}, the set may be a
+     * weakly consistent view of the subscriptions.
      *
      * @param op Default list to query for
      * @return Set containing all subscribed permissions
@@ -0,0 +1,293 @@
+package org.bukkit.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.lang.Validate;
+import org.json.simple.JSONValue;
+
+/**
+ * Records where the time to load and enable each plugin goes.
+ * <p>
+ * Times are kept per plugin name and per {@link Phase}, in nanoseconds, and
+ * add up when a phase is recorded more than once. Recording only happens
+ * while the server starts: code timing a phase should check {@link
+ * #isRecording()} first, so nothing is measured at runtime. All methods are
+ * thread safe.
+ */
+public final class PluginStartupProfile {
+    /**
+     * A step of loading or enabling a plugin
+     */
+    public enum Phase {
+        /**
+         * Reading the plugin.yml. Recorded by {@link SimplePluginManager}.
+         */
+        DESCRIPTION,
+        /**
+         * Creating the class loader, loading the main class and constructing
+         * the plugin. Recorded by {@link SimplePluginManager}.
+         */
+        CLASS_LOADING,
+        /**
+         * Calling {@link Plugin#onLoad()}. Recorded by {@link
+         * SimplePluginManager} when it reloads a plugin, and otherwise by
+         * the server implementation.
+         */
+        ONLOAD,
+        /**
+         * Registering the commands of the plugin.yml. Recorded by
+         * {@link SimplePluginManager}.
+         */
+        COMMANDS,
+        /**
+         * Enabling the plugin, including {@link Plugin#onEnable()}. Recorded
+         * by {@link SimplePluginManager}.
+         */
+        ENABLE,
+        /**
+         * Registering event listeners, which normally happens during
+         * {@link #ENABLE}. Recorded by {@link SimplePluginManager}.
+         */
+        LISTENERS,
+        /**
+         * Registering the permissions of the plugin.yml. Recorded by {@link
+         * SimplePluginManager} when it reloads a plugin, and otherwise by
+         * the server implementation.
+         */
+        PERMISSIONS
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+    private static final int CLASSES = PHASES.length;
+    private static final int JAR_SIZE = CLASSES + 1;
+
+    private final ConcurrentMap<String, AtomicLongArray> plugins = new ConcurrentHashMap<String, AtomicLongArray>();
+    private volatile boolean recording = false;
+
+    /**
+     * Clears all recorded values and starts recording
+     */
+    public void start() {
+        reset();
+        recording = true;
+    }
+
+    /**
+     * Stops recording. The recorded values are kept.
+     */
+    public void stop() {
+        recording = false;
+    }
+
+    /**
+     * Gets whether phases are being recorded. Phases should only be timed
+     * and recorded while this is true.
+     *
+     * @return true if recording
+     */
+    public boolean isRecording() {
+        return recording;
+    }
+
+    /**
+     * Adds time spent in a phase of a plugin
+     *
+     * @param plugin name of the plugin
+     * @param phase the phase
+     * @param nanos time spent, in nanoseconds
+     */
+    public void record(String plugin, Phase phase, long nanos) {
+        Validate.notNull(plugin, "Plugin cannot be null");
+        Validate.notNull(phase, "Phase cannot be null");
+        getCounters(plugin).addAndGet(phase.ordinal(), nanos);
+    }
+
+    /**
+     * Sets the number of classes a plugin has loaded and the size of its
+     * file. This is recorded by the plugin loader when the plugin is enabled.
+     *
+     * @param plugin name of the plugin
+     * @param classes number of classes defined for the plugin
+     * @param jarSize size of the plugin file, in bytes
+     */
+    public void recordClasses(String plugin, int classes, long jarSize) {
+        Validate.notNull(plugin, "Plugin cannot be null");
+        AtomicLongArray counters = getCounters(plugin);
+        counters.set(CLASSES, classes);
+        counters.set(JAR_SIZE, jarSize);
+    }
+
+    private AtomicLongArray getCounters(String plugin) {
+        AtomicLongArray counters = plugins.get(plugin);
+        if (counters == null) {
+            counters = new AtomicLongArray(PHASES.length + 2);
+            AtomicLongArray existing = plugins.putIfAbsent(plugin, counters);
+            if (existing != null) {
+                counters = existing;
+            }
+        }
+        return counters;
+    }
+
+    /**
+     * Gets the time spent in a phase of a plugin
+     *
+     * @param plugin name of the plugin
+     * @param phase the phase
+     * @return the time, in nanoseconds
+     */
+    public long getTime(String plugin, Phase phase) {
+        AtomicLongArray counters = plugins.get(plugin);
+        return counters == null ? 0 : counters.get(phase.ordinal());
+    }
+
+    /**
+     * Gets the time spent in all phases of a plugin. Listener registration
+     * is left out, since it is already part of enabling.
+     *
+     * @param plugin name of the plugin
+     * @return the time, in nanoseconds
+     */
+    public long getTotalTime(String plugin) {
+        long total = 0;
+        for (Phase phase : PHASES) {
+            if (phase != Phase.LISTENERS) {
+                total += getTime(plugin, phase);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Gets the number of classes defined for a plugin when it was enabled
+     *
+     * @param plugin name of the plugin
+     * @return the number of classes
+     */
+    public int getClassCount(String plugin) {
+        AtomicLongArray counters = plugins.get(plugin);
+        return counters == null ? 0 : (int) counters.get(CLASSES);
+    }
+
+    /**
+     * Gets the size of the file of a plugin
+     *
+     * @param plugin name of the plugin
+     * @return the size, in bytes
+     */
+    public long getJarSize(String plugin) {
+        AtomicLongArray counters = plugins.get(plugin);
+        return counters == null ? 0 : counters.get(JAR_SIZE);
+    }
+
+    /**
+     * Gets the names of all profiled plugins, slowest first
+     *
+     * @return the plugin names
+     */
+    public List<String> getPlugins() {
+        List<String> names = new ArrayList<String>(plugins.keySet());
+        Collections.sort(names, new Comparator<String>() {
+            public int compare(String first, String second) {
+                long difference = getTotalTime(second) - getTotalTime(first);
+                return difference < 0 ? -1 : difference > 0 ? 1 : first.compareTo(second);
+            }
+        });
+        return names;
+    }
+
+    /**
+     * Clears all recorded values
+     */
+    public void reset() {
+        plugins.clear();
+    }
+
+    /**
+     * Gets whether nothing has been recorded for any plugin
+     *
+     * @return true if no plugin was profiled
+     */
+    public boolean isEmpty() {
+        return plugins.isEmpty();
+    }
+
+    /**
+     * Writes the profile as a text report and a JSON report to the given
+     * directory. The reports are named after the current time, such as
+     * <code>startup-20140101-120000.txt</code> and <code>.json</code>, and
+     * never replace existing files.
+     *
+     * @param directory directory to write the reports to
+     * @return the text report; the JSON report has the same name with a
+     *     <code>.json</code> extension
+     * @throws IOException if a report cannot be written
+     */
+    public File writeReports(File directory) throws IOException {
+        Validate.notNull(directory, "Directory cannot be null");
+        directory.mkdirs();
+
+        String name = "startup-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        File textFile = new File(directory, name + ".txt");
+        File jsonFile = new File(directory, name + ".json");
+        for (int i = 1; textFile.exists() || jsonFile.exists(); i++) {
+            textFile = new File(directory, name + "-" + i + ".txt");
+            jsonFile = new File(directory, name + "-" + i + ".json");
+        }
+
+        List<String> names = getPlugins();
+        List<Object> json = new ArrayList<Object>();
+        PrintStream text = new PrintStream(textFile);
+        try {
+            long total = 0;
+            for (String plugin : names) {
+                total += getTotalTime(plugin);
+                text.println(plugin + " Total: " + toMillis(getTotalTime(plugin)) + "ms Classes: " + getClassCount(plugin) + " Jar: " + getJarSize(plugin) + " bytes");
+                Map<String, Object> phases = new LinkedHashMap<String, Object>();
+                for (Phase phase : PHASES) {
+                    long time = getTime(plugin, phase);
+                    phases.put(phase.name(), time);
+                    if (time != 0) {
+                        text.println("    " + phase + " " + toMillis(time) + "ms");
+                    }
+                }
+
+                Map<String, Object> entry = new LinkedHashMap<String, Object>();
+                entry.put("plugin", plugin);
+                entry.put("totalTime", getTotalTime(plugin));
+                entry.put("classes", getClassCount(plugin));
+                entry.put("jarSize", getJarSize(plugin));
+                entry.put("phases", phases);
+                json.add(entry);
+            }
+            text.println("Total time " + toMillis(total) + "ms");
+        } finally {
+            text.close();
+        }
+
+        PrintStream out = new PrintStream(jsonFile);
+        try {
+            out.println(JSONValue.toJSONString(json));
+        } finally {
+            out.close();
+        }
+        return textFile;
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format("%.2f", nanos / 1000000D);
+    }
+}
@@ -1,5 +1,8 @@
 package org.bukkit.plugin;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.bukkit.event.*;
 
 /**
@@ -11,6 +14,9 @@ public class RegisteredListener {
     private final Plugin plugin;
     private final EventExecutor executor;
     private final boolean ignoreCancelled;
+    // Subclasses may override callEvent, so only exact registrations skip it
+    private final boolean direct;
+    private final boolean batch;
 
     public RegisteredListener(final Listener listener, final EventExecutor executor, final EventPriority priority, final Plugin plugin, final boolean ignoreCancelled) {
         this.listener = listener;
@@ -18,6 +24,8 @@ public class RegisteredListener {
         this.plugin = plugin;
         this.executor = executor;
         this.ignoreCancelled = ignoreCancelled;
+        this.direct = getClass() == RegisteredListener.class;
+        this.batch = executor instanceof BatchEventExecutor;
     }
 
     /**
@@ -54,14 +62,79 @@ public class RegisteredListener {
      * @throws EventException If an event handler throws an exception.
      */
     public void callEvent(final Event event) throws EventException {
-        if (event instanceof Cancellable){
-            if (((Cancellable) event).isCancelled() && isIgnoringCancelled()){
-                return;
-            }
+        // Most listeners accept cancelled events, so test the flag before the type
+        if (ignoreCancelled && event instanceof Cancellable && ((Cancellable) event).isCancelled()) {
+            return;
         }
         executor.execute(listener, event);
     }
 
+    /**
+     * Calls the event executor with a batch of events, leaving out cancelled
+     * events if this listener ignores them. Executors that are not a {@link
+     * BatchEventExecutor} are called once for each event, and an exception
+     * thrown for one event stops the rest of the batch.
+     *
+     * @param events The events, in order
+     * @throws EventException If an event handler throws an exception.
+     */
+    public void callEvents(final List<? extends Event> events) throws EventException {
+        if (!batch) {
+            for (Event event : events) {
+                callEvent(event);
+            }
+            return;
+        }
+
+        List<? extends Event> accepted = events;
+        if (ignoreCancelled) {
+            List<Event> uncancelled = null;
+            for (int i = 0; i < events.size(); i++) {
+                Event event = events.get(i);
+                if (event instanceof Cancellable && ((Cancellable) event).isCancelled()) {
+                    if (uncancelled == null) {
+                        uncancelled = new ArrayList<Event>(events.subList(0, i));
+                    }
+                } else if (uncancelled != null) {
+                    uncancelled.add(event);
+                }
+            }
+            if (uncancelled != null) {
+                accepted = uncancelled;
+            }
+        }
+
+        if (!accepted.isEmpty()) {
+            ((BatchEventExecutor) executor).execute(listener, accepted);
+        }
+    }
+
+    /**
+     * Gets whether the event executor handles a batch of events in a single
+     * call
+     *
+     * @return True when the executor is a {@link BatchEventExecutor}
+     */
+    public boolean isBatch() {
+        return batch;
+    }
+
+    /**
+     * Calls the event executor for an event the caller has already checked
+     * against {@link #isIgnoringCancelled()}. Subclasses overriding
+     * {@link #callEvent(Event)} are called through it.
+     *
+     * @param event The event
+     * @throws EventException If an event handler throws an exception.
+     */
+    void dispatch(final Event event) throws EventException {
+        if (direct) {
+            executor.execute(listener, event);
+        } else {
+            callEvent(event);
+        }
+    }
+
      /**
      * Whether this listener accepts cancelled events
      *
@@ -1,19 +1,29 @@
 package org.bukkit.plugin;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -21,8 +31,11 @@ import java.util.regex.Pattern;
 import org.apache.commons.lang.Validate;
 import org.bukkit.Server;
 import org.bukkit.command.Command;
+import org.bukkit.command.PluginIdentifiableCommand;
 import org.bukkit.command.PluginCommandYamlParser;
 import org.bukkit.command.SimpleCommandMap;
+import org.bukkit.configuration.serialization.ConfigurationSerialization;
+import org.bukkit.event.Cancellable;
 import org.bukkit.event.Event;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.HandlerList;
@@ -30,29 +43,54 @@ import org.bukkit.event.Listener;
 import org.bukkit.permissions.Permissible;
 import org.bukkit.permissions.Permission;
 import org.bukkit.permissions.PermissionDefault;
+import org.bukkit.plugin.java.JavaPluginLoader;
+import org.bukkit.scheduler.BukkitTask;
 import org.bukkit.util.FileUtil;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Handles all plugin management from the Server
  */
 public final class SimplePluginManager implements PluginManager {
+    private static final int LEAK_PROBE_ATTEMPTS = 10;
+    private static final long LEAK_PROBE_DELAY = 50;
+    private static final int MAX_DESCRIPTION_THREADS = 8;
     private final Server server;
     private final Map<Pattern, PluginLoader> fileAssociations = new HashMap<Pattern, PluginLoader>();
     private final List<Plugin> plugins = new ArrayList<Plugin>();
     private final Map<String, Plugin> lookupNames = new HashMap<String, Plugin>();
+    private final Set<Plugin> lazyPlugins = new HashSet<Plugin>();
+    private final Map<String, File> pluginFiles = new HashMap<String, File>();
+    private final PluginStartupProfile startupProfile = new PluginStartupProfile();
+    private final Set<Plugin> startupPlugins = new HashSet<Plugin>();
+    private File startupDirectory = null;
+    private volatile File startupReportDirectory = null;
     private static File updateDirectory = null;
     private final SimpleCommandMap commandMap;
     private final Map<String, Permission> permissions = new HashMap<String, Permission>();
     private final Map<Boolean, Set<Permission>> defaultPerms = new LinkedHashMap<Boolean, Set<Permission>>();
-    private final Map<String, Map<Permissible, Boolean>> permSubs = new HashMap<String, Map<Permissible, Boolean>>();
-    private final Map<Boolean, Map<Permissible, Boolean>> defSubs = new HashMap<Boolean, Map<Permissible, Boolean>>();
+    private final ConcurrentMap<String, Map<Permissible, Boolean>> permSubs = new ConcurrentHashMap<String, Map<Permissible, Boolean>>();
+    private final ConcurrentMap<Boolean, Map<Permissible, Boolean>> defSubs = new ConcurrentHashMap<Boolean, Map<Permissible, Boolean>>();
+    private final ThreadLocal<PermissionBatch> permissionBatch = new ThreadLocal<PermissionBatch>() {
+        @Override
+        protected PermissionBatch initialValue() {
+            return new PermissionBatch();
+        }
+    };
+    private final Map<Class<? extends Event>, HandlerList> handlerLists = new ConcurrentHashMap<Class<? extends Event>, HandlerList>();
+    private final ConcurrentMap<RegisteredListener, TimingHistogram> eventProfile = new ConcurrentHashMap<RegisteredListener, TimingHistogram>();
+    private volatile int profileInterval = 0;
+    private int profileCounter = 0;
     private boolean useTimings = false;
 
     public SimplePluginManager(Server instance, SimpleCommandMap commandMap) {
         server = instance;
         this.commandMap = commandMap;
+        commandMap.setPluginManager(this);
 
         defaultPerms.put(true, new HashSet<Permission>());
         defaultPerms.put(false, new HashSet<Permission>());
@@ -85,6 +123,10 @@ public final class SimplePluginManager implements PluginManager {
             throw new IllegalArgumentException(String.format("Class %s does not implement interface PluginLoader", loader.getName()));
         }
 
+        if (instance instanceof JavaPluginLoader) {
+            ((JavaPluginLoader) instance).setStartupProfile(startupProfile);
+        }
+
         Pattern[] patterns = instance.getPluginFileFilters();
 
         synchronized (this) {
@@ -96,6 +138,12 @@ public final class SimplePluginManager implements PluginManager {
 
     /**
      * Loads the plugins contained within the specified directory
+     * <p>
+     * This starts a new {@link #getStartupProfile() startup profile}. Once
+     * every plugin loaded here has been enabled, deferred or disabled, the
+     * profile stops recording and, if anything was recorded, its reports are
+     * written to the {@link #setStartupReportDirectory(File) report
+     * directory}.
      *
      * @param directory Directory to check for plugins
      * @return A list of all plugins loaded
@@ -104,6 +152,13 @@ public final class SimplePluginManager implements PluginManager {
         Validate.notNull(directory, "Directory cannot be null");
         Validate.isTrue(directory.isDirectory(), "Directory must be a directory");
 
+        synchronized (startupPlugins) {
+            startupPlugins.clear();
+            File reports = startupReportDirectory;
+            startupDirectory = reports != null ? reports : new File(directory.getAbsoluteFile().getParentFile(), "startup-profile");
+            startupProfile.start();
+        }
+
         List<Plugin> result = new ArrayList<Plugin>();
         Set<Pattern> filters = fileAssociations.keySet();
 
@@ -113,11 +168,12 @@ public final class SimplePluginManager implements PluginManager {
 
         Map<String, File> plugins = new HashMap<String, File>();
         Set<String> loadedPlugins = new HashSet<String>();
-        Map<String, Collection<String>> dependencies = new HashMap<String, Collection<String>>();
-        Map<String, Collection<String>> softDependencies = new HashMap<String, Collection<String>>();
+        PluginDependencyGraph graph = new PluginDependencyGraph();
 
         // This is where it figures out all possible plugins
-        for (File file : directory.listFiles()) {
+        List<File> files = new ArrayList<File>();
+        List<Callable<PluginDescriptionFile>> readers = new ArrayList<Callable<PluginDescriptionFile>>();
+        for (final File file : directory.listFiles()) {
             PluginLoader loader = null;
             for (Pattern filter : filters) {
                 Matcher match = filter.matcher(file.getName());
@@ -128,9 +184,33 @@ public final class SimplePluginManager implements PluginManager {
 
             if (loader == null) continue;
 
+            final PluginLoader fileLoader = loader;
+            files.add(file);
+            readers.add(new Callable<PluginDescriptionFile>() {
+                public PluginDescriptionFile call() throws InvalidDescriptionException {
+                    long start = System.nanoTime();
+                    PluginDescriptionFile description = fileLoader.getPluginDescription(file);
+                    startupProfile.record(description.getName(), PluginStartupProfile.Phase.DESCRIPTION, System.nanoTime() - start);
+                    return description;
+                }
+            });
+        }
+
+        // Descriptions are read concurrently, then processed in directory order
+        List<Future<PluginDescriptionFile>> descriptions;
+        try {
+            descriptions = readDescriptions(readers);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            server.getLogger().log(Level.SEVERE, "Interrupted while reading plugin descriptions in folder '" + directory.getPath() + "'", ex);
+            return new Plugin[0];
+        }
+
+        for (int i = 0; i < files.size(); i++) {
+            File file = files.get(i);
             PluginDescriptionFile description = null;
             try {
-                description = loader.getPluginDescription(file);
+                description = getDescription(descriptions.get(i));
                 String name = description.getName();
                 if (name.equalsIgnoreCase("bukkit") || name.equalsIgnoreCase("minecraft") || name.equalsIgnoreCase("mojang")) {
                     server.getLogger().log(Level.SEVERE, "Could not load '" + file.getPath() + "' in folder '" + directory.getPath() + "': Restricted Name");
@@ -158,144 +238,122 @@ public final class SimplePluginManager implements PluginManager {
                     ));
             }
 
-            Collection<String> softDependencySet = description.getSoftDepend();
-            if (softDependencySet != null && !softDependencySet.isEmpty()) {
-                if (softDependencies.containsKey(description.getName())) {
-                    // Duplicates do not matter, they will be removed together if applicable
-                    softDependencies.get(description.getName()).addAll(softDependencySet);
-                } else {
-                    softDependencies.put(description.getName(), new LinkedList<String>(softDependencySet));
-                }
-            }
-
-            Collection<String> dependencySet = description.getDepend();
-            if (dependencySet != null && !dependencySet.isEmpty()) {
-                dependencies.put(description.getName(), new LinkedList<String>(dependencySet));
-            }
-
-            Collection<String> loadBeforeSet = description.getLoadBefore();
-            if (loadBeforeSet != null && !loadBeforeSet.isEmpty()) {
-                for (String loadBeforeTarget : loadBeforeSet) {
-                    if (softDependencies.containsKey(loadBeforeTarget)) {
-                        softDependencies.get(loadBeforeTarget).add(description.getName());
-                    } else {
-                        // softDependencies is never iterated, so 'ghost' plugins aren't an issue
-                        Collection<String> shortSoftDependency = new LinkedList<String>();
-                        shortSoftDependency.add(description.getName());
-                        softDependencies.put(loadBeforeTarget, shortSoftDependency);
-                    }
-                }
-            }
+            graph.addPlugin(description.getName(), description.getDepend(), description.getSoftDepend(), description.getLoadBefore());
         }
 
-        while (!plugins.isEmpty()) {
-            boolean missingDependency = true;
-            Iterator<String> pluginIterator = plugins.keySet().iterator();
-
-            while (pluginIterator.hasNext()) {
-                String plugin = pluginIterator.next();
+        graph.resolve();
 
-                if (dependencies.containsKey(plugin)) {
-                    Iterator<String> dependencyIterator = dependencies.get(plugin).iterator();
+        for (Map.Entry<String, String> entry : graph.getUnknownDependencies().entrySet()) {
+            server.getLogger().log(
+                Level.SEVERE,
+                "Could not load '" + plugins.get(entry.getKey()).getPath() + "' in folder '" + directory.getPath() + "'",
+                new UnknownDependencyException(entry.getValue()));
+        }
 
-                    while (dependencyIterator.hasNext()) {
-                        String dependency = dependencyIterator.next();
+        for (String plugin : graph.getLoadOrder()) {
+            File file = plugins.get(plugin);
 
-                        // Dependency loaded
-                        if (loadedPlugins.contains(dependency)) {
-                            dependencyIterator.remove();
+            // A dependency may have been planned but failed to load
+            String missing = null;
+            for (String dependency : graph.getDependencies(plugin)) {
+                if (!loadedPlugins.contains(dependency)) {
+                    missing = dependency;
+                    break;
+                }
+            }
+            if (missing != null) {
+                server.getLogger().log(
+                    Level.SEVERE,
+                    "Could not load '" + file.getPath() + "' in folder '" + directory.getPath() + "'",
+                    new UnknownDependencyException(missing));
+                continue;
+            }
 
-                        // We have a dependency not found
-                        } else if (!plugins.containsKey(dependency)) {
-                            missingDependency = false;
-                            File file = plugins.get(plugin);
-                            pluginIterator.remove();
-                            softDependencies.remove(plugin);
-                            dependencies.remove(plugin);
+            try {
+                result.add(loadPlugin(file));
+                loadedPlugins.add(plugin);
+            } catch (InvalidPluginException ex) {
+                server.getLogger().log(Level.SEVERE, "Could not load '" + file.getPath() + "' in folder '" + directory.getPath() + "'", ex);
+            }
+        }
 
-                            server.getLogger().log(
-                                Level.SEVERE,
-                                "Could not load '" + file.getPath() + "' in folder '" + directory.getPath() + "'",
-                                new UnknownDependencyException(dependency));
-                            break;
-                        }
-                    }
+        for (String plugin : graph.getCircularDependencies()) {
+            server.getLogger().log(Level.SEVERE, "Could not load '" + plugins.get(plugin).getPath() + "' in folder '" + directory.getPath() + "': circular dependency detected");
+        }
 
-                    if (dependencies.containsKey(plugin) && dependencies.get(plugin).isEmpty()) {
-                        dependencies.remove(plugin);
-                    }
-                }
-                if (softDependencies.containsKey(plugin)) {
-                    Iterator<String> softDependencyIterator = softDependencies.get(plugin).iterator();
+        synchronized (startupPlugins) {
+            startupPlugins.addAll(result);
+        }
+        if (result.isEmpty()) {
+            finishStartup(null);
+        }
 
-                    while (softDependencyIterator.hasNext()) {
-                        String softDependency = softDependencyIterator.next();
+        return result.toArray(new Plugin[result.size()]);
+    }
 
-                        // Soft depend is no longer around
-                        if (!plugins.containsKey(softDependency)) {
-                            softDependencyIterator.remove();
-                        }
-                    }
+    /**
+     * Marks a plugin of the startup profile as started, and ends the
+     * profile once all of its plugins are started
+     *
+     * @param plugin the plugin that was enabled, deferred or disabled, or
+     *     null if there were no plugins to start
+     */
+    private void finishStartup(Plugin plugin) {
+        if (!startupProfile.isRecording()) {
+            return;
+        }
 
-                    if (softDependencies.get(plugin).isEmpty()) {
-                        softDependencies.remove(plugin);
-                    }
-                }
-                if (!(dependencies.containsKey(plugin) || softDependencies.containsKey(plugin)) && plugins.containsKey(plugin)) {
-                    // We're clear to load, no more soft or hard dependencies left
-                    File file = plugins.get(plugin);
-                    pluginIterator.remove();
-                    missingDependency = false;
-
-                    try {
-                        result.add(loadPlugin(file));
-                        loadedPlugins.add(plugin);
-                        continue;
-                    } catch (InvalidPluginException ex) {
-                        server.getLogger().log(Level.SEVERE, "Could not load '" + file.getPath() + "' in folder '" + directory.getPath() + "'", ex);
-                    }
-                }
+        File directory;
+        synchronized (startupPlugins) {
+            if (plugin != null && !startupPlugins.remove(plugin)) {
+                return;
+            }
+            if (!startupPlugins.isEmpty() || !startupProfile.isRecording()) {
+                return;
             }
+            startupProfile.stop();
+            directory = startupDirectory;
+        }
 
-            if (missingDependency) {
-                // We now iterate over plugins until something loads
-                // This loop will ignore soft dependencies
-                pluginIterator = plugins.keySet().iterator();
+        if (startupProfile.isEmpty()) {
+            return;
+        }
 
-                while (pluginIterator.hasNext()) {
-                    String plugin = pluginIterator.next();
+        try {
+            startupProfile.writeReports(directory);
+        } catch (IOException ex) {
+            server.getLogger().log(Level.WARNING, "Could not write the startup profile to '" + directory.getPath() + "'", ex);
+        }
+    }
 
-                    if (!dependencies.containsKey(plugin)) {
-                        softDependencies.remove(plugin);
-                        missingDependency = false;
-                        File file = plugins.get(plugin);
-                        pluginIterator.remove();
+    private List<Future<PluginDescriptionFile>> readDescriptions(List<Callable<PluginDescriptionFile>> readers) throws InterruptedException {
+        int threads = Math.min(readers.size(), Math.min(Runtime.getRuntime().availableProcessors(), MAX_DESCRIPTION_THREADS));
+        if (threads == 0) {
+            return new ArrayList<Future<PluginDescriptionFile>>();
+        }
 
-                        try {
-                            result.add(loadPlugin(file));
-                            loadedPlugins.add(plugin);
-                            break;
-                        } catch (InvalidPluginException ex) {
-                            server.getLogger().log(Level.SEVERE, "Could not load '" + file.getPath() + "' in folder '" + directory.getPath() + "'", ex);
-                        }
-                    }
-                }
-                // We have no plugins left without a depend
-                if (missingDependency) {
-                    softDependencies.clear();
-                    dependencies.clear();
-                    Iterator<File> failedPluginIterator = plugins.values().iterator();
-
-                    while (failedPluginIterator.hasNext()) {
-                        File file = failedPluginIterator.next();
-                        failedPluginIterator.remove();
-                        server.getLogger().log(Level.SEVERE, "Could not load '" + file.getPath() + "' in folder '" + directory.getPath() + "': circular dependency detected");
-                    }
-                }
-            }
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setNameFormat("Plugin Description Reader #%d").setDaemon(true).build());
+        try {
+            return executor.invokeAll(readers);
+        } finally {
+            executor.shutdown();
         }
+    }
 
-        return result.toArray(new Plugin[result.size()]);
+    private PluginDescriptionFile getDescription(Future<PluginDescriptionFile> description) throws InvalidDescriptionException {
+        try {
+            return description.get();
+        } catch (InterruptedException ex) {
+            // Unreachable; invokeAll only returns completed futures
+            throw new IllegalStateException(ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof InvalidDescriptionException) {
+                throw (InvalidDescriptionException) cause;
+            }
+            Throwables.propagateIfPossible(cause);
+            throw new IllegalStateException(cause);
+        }
     }
 
     /**
@@ -325,18 +383,224 @@ public final class SimplePluginManager implements PluginManager {
             if (match.find()) {
                 PluginLoader loader = fileAssociations.get(filter);
 
+                boolean profile = startupProfile.isRecording();
+                long start = profile ? System.nanoTime() : 0;
                 result = loader.loadPlugin(file);
+                if (result != null && profile) {
+                    startupProfile.record(result.getDescription().getName(), PluginStartupProfile.Phase.CLASS_LOADING, System.nanoTime() - start);
+                }
             }
         }
 
         if (result != null) {
             plugins.add(result);
             lookupNames.put(result.getDescription().getName(), result);
+            pluginFiles.put(result.getDescription().getName(), file);
+        }
+
+        return result;
+    }
+
+    /**
+     * Disables and unloads a single plugin, then loads it again from its
+     * file and enables it if it was enabled.
+     * <p>
+     * Once unloaded, the class loader of the old plugin should be garbage
+     * collected. If it is not, the registries and threads still referring to
+     * its classes are logged as a likely class loader leak. Callers should
+     * not keep references to the old plugin.
+     * <p>
+     * Plugins that depend or soft depend on the plugin may hold on to its
+     * classes, so it cannot be reloaded while any of them is loaded.
+     *
+     * @param name Name of the plugin to reload
+     * @return The new plugin, or null if the file is no longer a valid plugin
+     * @throws InvalidPluginException Thrown when the file of the plugin is
+     *     not a valid plugin
+     * @throws UnknownDependencyException If a required dependency of the new
+     *     plugin could not be found
+     * @throws IllegalArgumentException Thrown when the plugin is not loaded
+     *     from a file, or plugins depending on it are loaded
+     */
+    public Plugin reloadPlugin(String name) throws InvalidPluginException, UnknownDependencyException {
+        final File file;
+        final boolean enabled;
+        Reference<ClassLoader> probe;
+        Plugin plugin;
+        synchronized (this) {
+            plugin = getPlugin(name);
+            Validate.notNull(plugin, "Plugin " + name + " is not loaded");
+            name = plugin.getDescription().getName();
+            file = pluginFiles.get(name);
+            Validate.notNull(file, "Plugin " + name + " was not loaded from a file");
+
+            List<String> dependents = new ArrayList<String>();
+            for (Plugin other : plugins) {
+                if (other.getDescription().getDepend().contains(name) || other.getDescription().getSoftDepend().contains(name)) {
+                    dependents.add(other.getDescription().getName());
+                }
+            }
+            Validate.isTrue(dependents.isEmpty(), "Plugins depending on " + name + " must be unloaded first: " + dependents);
+
+            enabled = plugin.isEnabled();
+            probe = unloadPlugin(plugin);
+        }
+        plugin = null;
+
+        // Collecting may take a while, so other threads may use the manager meanwhile
+        for (int i = 0; i < LEAK_PROBE_ATTEMPTS && probe.get() != null; i++) {
+            System.gc();
+            try {
+                Thread.sleep(LEAK_PROBE_DELAY);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        ClassLoader leaked = probe.get();
+        if (leaked != null) {
+            server.getLogger().warning("The class loader of " + name + " was not collected after unloading, it is still referenced by: " + findReferences(leaked));
+            leaked = null;
         }
 
+        synchronized (this) {
+            return reloadPlugin(file, enabled);
+        }
+    }
+
+    private Plugin reloadPlugin(File file, boolean enabled) throws InvalidPluginException, UnknownDependencyException {
+        Plugin result = loadPlugin(file);
+        if (result == null) {
+            return null;
+        }
+
+        String name = result.getDescription().getName();
+        boolean profile = startupProfile.isRecording();
+        long start = profile ? System.nanoTime() : 0;
+        try {
+            result.onLoad();
+        } catch (Throwable ex) {
+            server.getLogger().log(Level.SEVERE, ex.getMessage() + " initializing " + result.getDescription().getFullName() + " (Is it up to date?)", ex);
+        }
+        if (profile) {
+            startupProfile.record(name, PluginStartupProfile.Phase.ONLOAD, System.nanoTime() - start);
+            start = System.nanoTime();
+        }
+
+        beginPermissionBatch();
+        try {
+            for (Permission permission : result.getDescription().getPermissions()) {
+                try {
+                    addPermission(permission);
+                } catch (IllegalArgumentException ex) {
+                    server.getLogger().log(Level.WARNING, "Plugin " + result.getDescription().getFullName() + " tried to register permission '" + permission.getName() + "' but it's already registered", ex);
+                }
+            }
+        } finally {
+            endPermissionBatch();
+        }
+        if (profile) {
+            startupProfile.record(name, PluginStartupProfile.Phase.PERMISSIONS, System.nanoTime() - start);
+        }
+
+        if (enabled) {
+            enablePlugin(result);
+        }
         return result;
     }
 
+    private Reference<ClassLoader> unloadPlugin(Plugin plugin) {
+        disablePlugin(plugin);
+        if (plugin.getPluginLoader() instanceof JavaPluginLoader) {
+            // Also releases the classes of plugins that were never enabled
+            ((JavaPluginLoader) plugin.getPluginLoader()).unloadPlugin(plugin);
+        }
+
+        commandMap.unregisterCommands(plugin);
+        for (Permission permission : plugin.getDescription().getPermissions()) {
+            removePermission(permission);
+        }
+
+        ClassLoader loader = plugin.getClass().getClassLoader();
+        ConfigurationSerialization.unregisterClasses(loader);
+
+        plugins.remove(plugin);
+        lookupNames.remove(plugin.getDescription().getName());
+        pluginFiles.remove(plugin.getDescription().getName());
+
+        // URLClassLoader can only release its jar on Java 7 and later
+        if (loader instanceof Closeable) {
+            try {
+                ((Closeable) loader).close();
+            } catch (IOException ex) {
+                server.getLogger().log(Level.WARNING, "Could not close the class loader of " + plugin.getDescription().getFullName(), ex);
+            }
+        }
+
+        return new WeakReference<ClassLoader>(loader);
+    }
+
+    /**
+     * Describes the known registries and threads that refer to classes of a
+     * class loader
+     */
+    private List<String> findReferences(ClassLoader loader) {
+        List<String> references = new ArrayList<String>();
+
+        for (HandlerList handlers : HandlerList.getHandlerLists()) {
+            for (RegisteredListener listener : handlers.getRegisteredListeners()) {
+                if (isDefinedBy(loader, listener.getListener()) || isDefinedBy(loader, listener.getPlugin())) {
+                    references.add("event listener " + listener.getListener().getClass().getName());
+                }
+            }
+        }
+
+        for (Command command : commandMap.getCommands()) {
+            if (isDefinedBy(loader, command) || (command instanceof PluginIdentifiableCommand && isDefinedBy(loader, ((PluginIdentifiableCommand) command).getPlugin()))) {
+                references.add("command " + command.getName());
+            }
+        }
+
+        for (Class<?> service : server.getServicesManager().getKnownServices()) {
+            for (RegisteredServiceProvider<?> provider : server.getServicesManager().getRegistrations(service)) {
+                if (service.getClassLoader() == loader || isDefinedBy(loader, provider.getProvider()) || isDefinedBy(loader, provider.getPlugin())) {
+                    references.add("service " + service.getName());
+                }
+            }
+        }
+
+        for (BukkitTask task : server.getScheduler().getPendingTasks()) {
+            if (isDefinedBy(loader, task.getOwner())) {
+                references.add("scheduler task " + task.getTaskId());
+            }
+        }
+
+        Set<PluginLoader> pluginLoaders;
+        synchronized (this) {
+            pluginLoaders = new HashSet<PluginLoader>(fileAssociations.values());
+        }
+        for (PluginLoader pluginLoader : pluginLoaders) {
+            if (pluginLoader instanceof JavaPluginLoader) {
+                references.addAll(((JavaPluginLoader) pluginLoader).getReferences(loader));
+            }
+        }
+
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getContextClassLoader() == loader || isDefinedBy(loader, thread)) {
+                references.add("thread " + thread.getName());
+            }
+        }
+
+        if (references.isEmpty()) {
+            references.add("no known registry, likely another plugin or a static field outside the plugin");
+        }
+        return references;
+    }
+
+    private static boolean isDefinedBy(ClassLoader loader, Object object) {
+        return object != null && object.getClass().getClassLoader() == loader;
+    }
+
     private void checkUpdate(File file) {
         if (updateDirectory == null || !updateDirectory.isDirectory()) {
             return;
@@ -394,20 +658,74 @@ public final class SimplePluginManager implements PluginManager {
 
     public void enablePlugin(final Plugin plugin) {
         if (!plugin.isEnabled()) {
-            List<Command> pluginCommands = PluginCommandYamlParser.parse(plugin);
+            boolean profile = startupProfile.isRecording();
+
+            // Commands of a deferred plugin were registered when it was deferred
+            if (!lazyPlugins.remove(plugin)) {
+                long start = profile ? System.nanoTime() : 0;
+                List<Command> pluginCommands = PluginCommandYamlParser.parse(plugin);
 
-            if (!pluginCommands.isEmpty()) {
-                commandMap.registerAll(plugin.getDescription().getName(), pluginCommands);
+                if (!pluginCommands.isEmpty()) {
+                    commandMap.registerAll(plugin.getDescription().getName(), pluginCommands);
+                }
+                if (profile) {
+                    startupProfile.record(plugin.getDescription().getName(), PluginStartupProfile.Phase.COMMANDS, System.nanoTime() - start);
+                }
+
+                if (plugin.getDescription().isLazy()) {
+                    lazyPlugins.add(plugin);
+                    finishStartup(plugin);
+                    return;
+                }
             }
 
+            enableLazyPlugins(plugin.getDescription().getDepend());
+            enableLazyPlugins(plugin.getDescription().getSoftDepend());
+
+            long start = profile ? System.nanoTime() : 0;
+            // Permissions registered while enabling recalculate each Permissible once
+            beginPermissionBatch();
             try {
                 plugin.getPluginLoader().enablePlugin(plugin);
             } catch (Throwable ex) {
                 server.getLogger().log(Level.SEVERE, "Error occurred (in the plugin loader) while enabling " + plugin.getDescription().getFullName() + " (Is it up to date?)", ex);
+            } finally {
+                endPermissionBatch();
+            }
+            if (profile) {
+                startupProfile.record(plugin.getDescription().getName(), PluginStartupProfile.Phase.ENABLE, System.nanoTime() - start);
             }
 
             HandlerList.bakeAll();
         }
+
+        finishStartup(plugin);
+    }
+
+    private void enableLazyPlugins(List<String> names) {
+        for (String name : names) {
+            Plugin dependency = getPlugin(name);
+            if (dependency != null) {
+                enableLazyPlugin(dependency);
+            }
+        }
+    }
+
+    /**
+     * Enables a plugin whose enabling was deferred because it is
+     * {@link PluginDescriptionFile#isLazy() lazy}
+     * <p>
+     * This has no effect on plugins that are not waiting to be enabled.
+     *
+     * @param plugin Plugin to enable
+     * @return true if the plugin was waiting to be enabled
+     */
+    public boolean enableLazyPlugin(Plugin plugin) {
+        if (!lazyPlugins.contains(plugin)) {
+            return false;
+        }
+        enablePlugin(plugin);
+        return true;
     }
 
     public void disablePlugins() {
@@ -418,6 +736,9 @@ public final class SimplePluginManager implements PluginManager {
     }
 
     public void disablePlugin(final Plugin plugin) {
+        lazyPlugins.remove(plugin);
+        finishStartup(plugin);
+
         if (plugin.isEnabled()) {
             try {
                 plugin.getPluginLoader().disablePlugin(plugin);
@@ -443,6 +764,15 @@ public final class SimplePluginManager implements PluginManager {
                 server.getLogger().log(Level.SEVERE, "Error occurred (in the plugin loader) while unregistering events for " + plugin.getDescription().getFullName() + " (Is it up to date?)", ex);
             }
 
+            forgetHandlerLists(plugin.getClass().getClassLoader());
+
+            Iterator<RegisteredListener> profiled = eventProfile.keySet().iterator();
+            while (profiled.hasNext()) {
+                if (profiled.next().getPlugin() == plugin) {
+                    profiled.remove();
+                }
+            }
+
             try {
                 server.getMessenger().unregisterIncomingPluginChannel(plugin);
                 server.getMessenger().unregisterOutgoingPluginChannel(plugin);
@@ -454,25 +784,83 @@ public final class SimplePluginManager implements PluginManager {
 
     public void clearPlugins() {
         synchronized (this) {
+            synchronized (startupPlugins) {
+                startupPlugins.clear();
+                startupProfile.stop();
+            }
             disablePlugins();
             plugins.clear();
             lookupNames.clear();
+            lazyPlugins.clear();
+            pluginFiles.clear();
             HandlerList.unregisterAll();
+            handlerLists.clear();
+            eventProfile.clear();
+            startupProfile.reset();
             fileAssociations.clear();
             permissions.clear();
             defaultPerms.get(true).clear();
             defaultPerms.get(false).clear();
+            Permission.invalidateChildPermissions();
         }
     }
 
     /**
      * Calls an event with the given details.
      * <p>
-     * This method only synchronizes when the event is not asynchronous.
+     * This method does not synchronize. Listeners are read from the baked
+     * handler array of the event's {@link HandlerList}, which is replaced
+     * rather than mutated when listeners are registered or unregistered.
      *
      * @param event Event details
      */
     public void callEvent(Event event) {
+        checkThread(event);
+        fireEvent(event);
+    }
+
+    /**
+     * Calls a batch of events.
+     * <p>
+     * Consecutive events sharing a {@link HandlerList} are dispatched
+     * listener by listener: the baked listeners are read once, and each
+     * listener is called for every event in the run before the next listener
+     * is called. A listener with a {@link BatchEventExecutor} is called once
+     * with the whole run, and is timed as a single call when any event of
+     * the run is profiled. Every event still reaches its listeners in priority order,
+     * but a listener may see an event before a lower priority listener has
+     * seen an earlier event of the batch. Only events that do not depend on
+     * one another, such as the blocks broken by a single explosion, should
+     * be batched.
+     *
+     * @param events Events to call, in order
+     * @throws IllegalStateException Thrown when an asynchronous event is
+     *     fired from synchronous code.
+     *     <p>
+     *     <i>Note: This is best-effort basis, and should not be used to test
+     *     synchronized state. This is an indicator for flawed flow logic.</i>
+     */
+    public void callEvents(List<? extends Event> events) {
+        Validate.notNull(events, "Events cannot be null");
+        for (Event event : events) {
+            checkThread(event);
+        }
+
+        int size = events.size();
+        int start = 0;
+        while (start < size) {
+            HandlerList handlers = events.get(start).getHandlers();
+            int end = start + 1;
+            while (end < size && events.get(end).getHandlers() == handlers) {
+                end++;
+            }
+
+            fireEvents(handlers, events.subList(start, end));
+            start = end;
+        }
+    }
+
+    private void checkThread(Event event) {
         if (event.isAsynchronous()) {
             if (Thread.holdsLock(this)) {
                 throw new IllegalStateException(event.getEventName() + " cannot be triggered asynchronously from inside synchronized code.");
@@ -480,42 +868,136 @@ public final class SimplePluginManager implements PluginManager {
             if (server.isPrimaryThread()) {
                 throw new IllegalStateException(event.getEventName() + " cannot be triggered asynchronously from primary server thread.");
             }
-            fireEvent(event);
-        } else {
-            synchronized (this) {
-                fireEvent(event);
-            }
         }
     }
 
     private void fireEvent(Event event) {
         HandlerList handlers = event.getHandlers();
         RegisteredListener[] listeners = handlers.getRegisteredListeners();
+        int interval = profileInterval;
+        // The counter is not atomic; a lost increment only shifts the sample
+        boolean profile = interval != 0 && ++profileCounter % interval == 0;
+
+        // Tested once per event; listeners of events that cannot be cancelled skip the test
+        Cancellable cancellable = event instanceof Cancellable ? (Cancellable) event : null;
 
         for (RegisteredListener registration : listeners) {
-            if (!registration.getPlugin().isEnabled()) {
+            if (cancellable != null && registration.isIgnoringCancelled() && cancellable.isCancelled()) {
                 continue;
             }
 
-            try {
-                registration.callEvent(event);
-            } catch (AuthorNagException ex) {
-                Plugin plugin = registration.getPlugin();
-
-                if (plugin.isNaggable()) {
-                    plugin.setNaggable(false);
-
-                    server.getLogger().log(Level.SEVERE, String.format(
-                            "Nag author(s): '%s' of '%s' about the following: %s",
-                            plugin.getDescription().getAuthors(),
-                            plugin.getDescription().getFullName(),
-                            ex.getMessage()
-                            ));
+            if (profile) {
+                long start = System.nanoTime();
+                callListener(registration, event);
+                getProfile(registration).record(System.nanoTime() - start);
+            } else {
+                callListener(registration, event);
+            }
+        }
+    }
+
+    private void fireEvents(HandlerList handlers, List<? extends Event> events) {
+        RegisteredListener[] listeners = handlers.getRegisteredListeners();
+        int interval = profileInterval;
+        // Events are sampled one by one, as if each was called on its own
+        boolean[] profile = null;
+        if (interval != 0) {
+            for (int i = 0; i < events.size(); i++) {
+                if (++profileCounter % interval == 0) {
+                    if (profile == null) {
+                        profile = new boolean[events.size()];
+                    }
+                    profile[i] = true;
                 }
-            } catch (Throwable ex) {
-                server.getLogger().log(Level.SEVERE, "Could not pass event " + event.getEventName() + " to " + registration.getPlugin().getDescription().getFullName(), ex);
             }
         }
+
+        // Events of a batch share a HandlerList, but not necessarily a type
+        Cancellable[] cancellables = null;
+        for (int i = 0; i < events.size(); i++) {
+            if (events.get(i) instanceof Cancellable) {
+                if (cancellables == null) {
+                    cancellables = new Cancellable[events.size()];
+                }
+                cancellables[i] = (Cancellable) events.get(i);
+            }
+        }
+
+        for (RegisteredListener registration : listeners) {
+            if (registration.isBatch()) {
+                if (profile != null) {
+                    long start = System.nanoTime();
+                    callListener(registration, events);
+                    getProfile(registration).record(System.nanoTime() - start);
+                } else {
+                    callListener(registration, events);
+                }
+                continue;
+            }
+
+            boolean ignoreCancelled = cancellables != null && registration.isIgnoringCancelled();
+
+            for (int i = 0; i < events.size(); i++) {
+                if (ignoreCancelled && cancellables[i] != null && cancellables[i].isCancelled()) {
+                    continue;
+                }
+
+                if (profile != null && profile[i]) {
+                    long start = System.nanoTime();
+                    callListener(registration, events.get(i));
+                    getProfile(registration).record(System.nanoTime() - start);
+                } else {
+                    callListener(registration, events.get(i));
+                }
+            }
+        }
+    }
+
+    private void callListener(RegisteredListener registration, Event event) {
+        try {
+            registration.dispatch(event);
+        } catch (Throwable ex) {
+            handleListenerException(registration, event, ex);
+        }
+    }
+
+    private void callListener(RegisteredListener registration, List<? extends Event> events) {
+        try {
+            registration.callEvents(events);
+        } catch (Throwable ex) {
+            handleListenerException(registration, events.get(0), ex);
+        }
+    }
+
+    private void handleListenerException(RegisteredListener registration, Event event, Throwable ex) {
+        if (ex instanceof AuthorNagException) {
+            Plugin plugin = registration.getPlugin();
+
+            if (plugin.isNaggable()) {
+                plugin.setNaggable(false);
+
+                server.getLogger().log(Level.SEVERE, String.format(
+                        "Nag author(s): '%s' of '%s' about the following: %s",
+                        plugin.getDescription().getAuthors(),
+                        plugin.getDescription().getFullName(),
+                        ex.getMessage()
+                        ));
+            }
+        } else {
+            server.getLogger().log(Level.SEVERE, "Could not pass event " + event.getEventName() + " to " + registration.getPlugin().getDescription().getFullName(), ex);
+        }
+    }
+
+    private TimingHistogram getProfile(RegisteredListener registration) {
+        TimingHistogram histogram = eventProfile.get(registration);
+        if (histogram == null) {
+            histogram = new TimingHistogram();
+            TimingHistogram existing = eventProfile.putIfAbsent(registration, histogram);
+            if (existing != null) {
+                histogram = existing;
+            }
+        }
+        return histogram;
     }
 
     public void registerEvents(Listener listener, Plugin plugin) {
@@ -523,10 +1005,14 @@ public final class SimplePluginManager implements PluginManager {
             throw new IllegalPluginAccessException("Plugin attempted to register " + listener + " while not enabled");
         }
 
+        boolean profile = startupProfile.isRecording();
+        long start = profile ? System.nanoTime() : 0;
         for (Map.Entry<Class<? extends Event>, Set<RegisteredListener>> entry : plugin.getPluginLoader().createRegisteredListeners(listener, plugin).entrySet()) {
-            getEventListeners(getRegistrationClass(entry.getKey())).registerAll(entry.getValue());
+            getEventListeners(entry.getKey()).registerAll(entry.getValue());
+        }
+        if (profile) {
+            startupProfile.record(plugin.getDescription().getName(), PluginStartupProfile.Phase.LISTENERS, System.nanoTime() - start);
         }
-
     }
 
     public void registerEvent(Class<? extends Event> event, Listener listener, EventPriority priority, EventExecutor executor, Plugin plugin) {
@@ -555,21 +1041,58 @@ public final class SimplePluginManager implements PluginManager {
             throw new IllegalPluginAccessException("Plugin attempted to register " + event + " while not enabled");
         }
 
+        boolean profile = startupProfile.isRecording();
+        long start = profile ? System.nanoTime() : 0;
         if (useTimings) {
             getEventListeners(event).register(new TimedRegisteredListener(listener, executor, priority, plugin, ignoreCancelled));
         } else {
             getEventListeners(event).register(new RegisteredListener(listener, executor, priority, plugin, ignoreCancelled));
         }
+        if (profile) {
+            startupProfile.record(plugin.getDescription().getName(), PluginStartupProfile.Phase.LISTENERS, System.nanoTime() - start);
+        }
     }
 
     private HandlerList getEventListeners(Class<? extends Event> type) {
+        HandlerList handlers = handlerLists.get(type);
+        if (handlers != null) {
+            return handlers;
+        }
+
         try {
             Method method = getRegistrationClass(type).getDeclaredMethod("getHandlerList");
             method.setAccessible(true);
-            return (HandlerList) method.invoke(null);
+            handlers = (HandlerList) method.invoke(null);
         } catch (Exception e) {
             throw new IllegalPluginAccessException(e.toString());
         }
+
+        handlerLists.put(type, handlers);
+        return handlers;
+    }
+
+    /**
+     * Removes the cached handler lists of event classes defined by the given
+     * class loader, so a disabled plugin's classes are not kept reachable.
+     *
+     * @param loader the class loader of the plugin being disabled
+     */
+    private void forgetHandlerLists(ClassLoader loader) {
+        Iterator<Class<? extends Event>> iterator = handlerLists.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getClassLoader() == loader) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Gets the event classes whose handler lists are cached
+     *
+     * @return an unmodifiable view of the cached event classes
+     */
+    Set<Class<? extends Event>> getCachedEventClasses() {
+        return Collections.unmodifiableSet(handlerLists.keySet());
     }
 
     private Class<? extends Event> getRegistrationClass(Class<? extends Event> clazz) {
@@ -599,6 +1122,7 @@ public final class SimplePluginManager implements PluginManager {
         }
 
         permissions.put(name, perm);
+        permissionRegistered(name);
         calculatePermissionDefault(perm);
     }
 
@@ -611,7 +1135,25 @@ public final class SimplePluginManager implements PluginManager {
     }
 
     public void removePermission(String name) {
-        permissions.remove(name.toLowerCase());
+        name = name.toLowerCase();
+
+        if (permissions.remove(name) != null) {
+            permissionRegistered(name);
+        }
+    }
+
+    /**
+     * Recalculates the {@link Permissible}s that may have calculated their
+     * permissions from the children of a permission that was registered or
+     * removed since
+     */
+    private void permissionRegistered(String name) {
+        Permission.invalidateChildPermissions();
+
+        // Recalculating may change the subscriptions
+        for (Permissible p : new ArrayList<Permissible>(getPermissionSubscriptions(name))) {
+            recalculatePermissible(p);
+        }
     }
 
     public void recalculatePermissionDefaults(Permission perm) {
@@ -635,79 +1177,145 @@ public final class SimplePluginManager implements PluginManager {
     }
 
     private void dirtyPermissibles(boolean op) {
-        Set<Permissible> permissibles = getDefaultPermSubscriptions(op);
+        // Recalculating may change the subscriptions
+        List<Permissible> permissibles = new ArrayList<Permissible>(getDefaultPermSubscriptions(op));
 
         for (Permissible p : permissibles) {
-            p.recalculatePermissions();
+            recalculatePermissible(p);
         }
     }
 
-    public void subscribeToPermission(String permission, Permissible permissible) {
-        String name = permission.toLowerCase();
-        Map<Permissible, Boolean> map = permSubs.get(name);
-
-        if (map == null) {
-            map = new WeakHashMap<Permissible, Boolean>();
-            permSubs.put(name, map);
+    /**
+     * Recalculates the permissions of the given {@link Permissible}. During
+     * a permission batch on the current thread this is deferred until the
+     * batch ends.
+     *
+     * @param permissible Permissible to recalculate
+     * @see #beginPermissionBatch()
+     */
+    private void recalculatePermissible(Permissible permissible) {
+        PermissionBatch batch = permissionBatch.get();
+        if (batch.depth > 0) {
+            batch.permissibles.add(permissible);
+            return;
         }
 
-        map.put(permissible, true);
+        permissible.recalculatePermissions();
     }
 
-    public void unsubscribeFromPermission(String permission, Permissible permissible) {
-        String name = permission.toLowerCase();
-        Map<Permissible, Boolean> map = permSubs.get(name);
+    /**
+     * Starts a batch of permission changes on the current thread.
+     * <p>
+     * Until the batch ends, {@link Permissible}s are not recalculated when
+     * this manager registers or removes permissions or changes default
+     * permissions on the current thread. Instead, each affected Permissible
+     * is recalculated once when the batch ends. Batches may be nested, in
+     * which case recalculation waits for the outermost batch. Every call
+     * must be matched by a call to {@link #endPermissionBatch()} on the same
+     * thread, preferably in a finally block.
+     */
+    public void beginPermissionBatch() {
+        permissionBatch.get().depth++;
+    }
 
-        if (map != null) {
-            map.remove(permissible);
+    /**
+     * Ends a batch of permission changes on the current thread,
+     * recalculating every {@link Permissible} affected by the batch if it
+     * was the outermost one
+     *
+     * @throws IllegalStateException if no batch was started on the current
+     *     thread
+     * @see #beginPermissionBatch()
+     */
+    public void endPermissionBatch() {
+        PermissionBatch batch = permissionBatch.get();
+        if (batch.depth == 0) {
+            throw new IllegalStateException("No permission batch was started");
+        }
+        if (--batch.depth > 0) {
+            return;
+        }
 
-            if (map.isEmpty()) {
-                permSubs.remove(name);
-            }
+        List<Permissible> permissibles = new ArrayList<Permissible>(batch.permissibles);
+        batch.permissibles.clear();
+        for (Permissible p : permissibles) {
+            p.recalculatePermissions();
         }
     }
 
-    public Set<Permissible> getPermissionSubscriptions(String permission) {
-        String name = permission.toLowerCase();
-        Map<Permissible, Boolean> map = permSubs.get(name);
+    public void subscribeToPermission(String permission, Permissible permissible) {
+        subscribe(permSubs, permission.toLowerCase(), permissible);
+    }
 
-        if (map == null) {
-            return ImmutableSet.of();
-        } else {
-            return ImmutableSet.copyOf(map.keySet());
-        }
+    public void unsubscribeFromPermission(String permission, Permissible permissible) {
+        unsubscribe(permSubs, permission.toLowerCase(), permissible);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The returned set is an unmodifiable, weakly consistent view, which may
+     * be iterated from any thread without copying. Once every Permissible
+     * has unsubscribed, it no longer reflects later subscriptions.
+     */
+    public Set<Permissible> getPermissionSubscriptions(String permission) {
+        return getSubscriptions(permSubs, permission.toLowerCase());
     }
 
     public void subscribeToDefaultPerms(boolean op, Permissible permissible) {
-        Map<Permissible, Boolean> map = defSubs.get(op);
+        subscribe(defSubs, op, permissible);
+    }
 
-        if (map == null) {
-            map = new WeakHashMap<Permissible, Boolean>();
-            defSubs.put(op, map);
-        }
+    public void unsubscribeFromDefaultPerms(boolean op, Permissible permissible) {
+        unsubscribe(defSubs, op, permissible);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The returned set is an unmodifiable, weakly consistent view, which may
+     * be iterated from any thread without copying. Once every Permissible
+     * has unsubscribed, it no longer reflects later subscriptions.
+     */
+    public Set<Permissible> getDefaultPermSubscriptions(boolean op) {
+        return getSubscriptions(defSubs, op);
+    }
+
+    private static <K> void subscribe(ConcurrentMap<K, Map<Permissible, Boolean>> subscriptions, K key, Permissible permissible) {
+        // Changes are serialized so a map is never removed as empty while it is subscribed to
+        synchronized (subscriptions) {
+            Map<Permissible, Boolean> map = subscriptions.get(key);
 
-        map.put(permissible, true);
+            if (map == null) {
+                map = new MapMaker().concurrencyLevel(1).weakKeys().makeMap();
+                subscriptions.put(key, map);
+            }
+
+            map.put(permissible, true);
+        }
     }
 
-    public void unsubscribeFromDefaultPerms(boolean op, Permissible permissible) {
-        Map<Permissible, Boolean> map = defSubs.get(op);
+    private static <K> void unsubscribe(ConcurrentMap<K, Map<Permissible, Boolean>> subscriptions, K key, Permissible permissible) {
+        synchronized (subscriptions) {
+            Map<Permissible, Boolean> map = subscriptions.get(key);
 
-        if (map != null) {
-            map.remove(permissible);
+            if (map != null) {
+                map.remove(permissible);
 
-            if (map.isEmpty()) {
-                defSubs.remove(op);
+                if (map.isEmpty()) {
+                    subscriptions.remove(key);
+                }
             }
         }
     }
 
-    public Set<Permissible> getDefaultPermSubscriptions(boolean op) {
-        Map<Permissible, Boolean> map = defSubs.get(op);
+    private static <K> Set<Permissible> getSubscriptions(ConcurrentMap<K, Map<Permissible, Boolean>> subscriptions, K key) {
+        Map<Permissible, Boolean> map = subscriptions.get(key);
 
         if (map == null) {
             return ImmutableSet.of();
         } else {
-            return ImmutableSet.copyOf(map.keySet());
+            return Collections.unmodifiableSet(map.keySet());
         }
     }
 
@@ -727,4 +1335,84 @@ public final class SimplePluginManager implements PluginManager {
     public void useTimings(boolean use) {
         useTimings = use;
     }
+
+    /**
+     * Sets the fraction of event calls that are profiled.
+     * <p>
+     * Unlike {@link #useTimings(boolean)}, this takes effect immediately for
+     * all registered listeners. Every listener called for a sampled event is
+     * timed, and the results are available from {@link #getEventProfile()}.
+     * While disabled, the cost to each event call is a single volatile read.
+     * <p>
+     * One in every n event calls is sampled, so the fraction is rounded to
+     * the nearest 1/n: 0.6 samples one call in 2. Fractions below
+     * 1/{@link Integer#MAX_VALUE} sample one call in {@link
+     * Integer#MAX_VALUE}.
+     *
+     * @param fraction Fraction of event calls to profile, between 0 and 1
+     *     inclusive; 0 disables profiling
+     */
+    public void setEventProfiling(double fraction) {
+        Validate.isTrue(fraction >= 0 && fraction <= 1, "Fraction must be between 0 and 1");
+        profileInterval = fraction == 0 ? 0 : (int) Math.min(Integer.MAX_VALUE, Math.max(1, Math.round(1 / fraction)));
+    }
+
+    /**
+     * Gets the fraction of event calls that are profiled, as rounded by
+     * {@link #setEventProfiling(double)}
+     *
+     * @return Fraction of event calls profiled, or 0 if profiling is disabled
+     */
+    public double getEventProfiling() {
+        int interval = profileInterval;
+        return interval == 0 ? 0 : 1D / interval;
+    }
+
+    /**
+     * Gets the sampled call times of each listener that was called for a
+     * profiled event
+     *
+     * @return Unmodifiable live view of the call times by listener
+     */
+    public Map<RegisteredListener, TimingHistogram> getEventProfile() {
+        return Collections.unmodifiableMap(eventProfile);
+    }
+
+    /**
+     * Clears all sampled listener call times
+     */
+    public void resetEventProfile() {
+        eventProfile.clear();
+    }
+
+    /**
+     * Gets the time spent loading and enabling each plugin. The profile is
+     * recorded from {@link #loadPlugins(File)} until every plugin loaded
+     * there has been enabled, deferred or disabled, and is reset when all
+     * plugins are cleared.
+     *
+     * @return the startup profile
+     */
+    public PluginStartupProfile getStartupProfile() {
+        return startupProfile;
+    }
+
+    /**
+     * Sets the directory the reports of the startup profile are written to.
+     * By default, they are written to a <code>startup-profile</code>
+     * directory next to the directory plugins are loaded from.
+     *
+     * @param directory the report directory, or null for the default
+     */
+    public void setStartupReportDirectory(File directory) {
+        startupReportDirectory = directory;
+    }
+
+    /**
+     * The permission batch of a thread
+     */
+    private static final class PermissionBatch {
+        private int depth = 0;
+        private final Set<Permissible> permissibles = Collections.newSetFromMap(new IdentityHashMap<Permissible, Boolean>());
+    }
 }
@@ -1,5 +1,7 @@
 package org.bukkit.plugin;
 
+import java.util.List;
+
 import org.bukkit.event.Event;
 import org.bukkit.event.EventException;
 import org.bukkit.event.EventPriority;
@@ -7,12 +9,14 @@ import org.bukkit.event.Listener;
 
 /**
  * Extends RegisteredListener to include timing information
+ * <p>
+ * Timings are recorded for both synchronous and asynchronous events, and
+ * may be read safely from any thread.
  */
 public class TimedRegisteredListener extends RegisteredListener {
-    private int count;
-    private long totalTime;
-    private Class<? extends Event> eventClass;
-    private boolean multiple = false;
+    private final TimingHistogram timings = new TimingHistogram();
+    private volatile Class<? extends Event> eventClass;
+    private volatile boolean multiple = false;
 
     public TimedRegisteredListener(final Listener pluginListener, final EventExecutor eventExecutor, final EventPriority eventPriority, final Plugin registeredPlugin, final boolean listenCancelled) {
         super(pluginListener, eventExecutor, eventPriority, registeredPlugin, listenCancelled);
@@ -20,21 +24,51 @@ public class TimedRegisteredListener extends RegisteredListener {
 
     @Override
     public void callEvent(Event event) throws EventException {
-        if (event.isAsynchronous()) {
+        Class<? extends Event> newEventClass = event.getClass();
+        if (this.eventClass != newEventClass) {
+            updateEventClass(newEventClass);
+        }
+        long start = System.nanoTime();
+        try {
             super.callEvent(event);
+        } finally {
+            timings.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A batch handled in a single call is timed as one call.
+     */
+    @Override
+    public void callEvents(List<? extends Event> events) throws EventException {
+        if (!isBatch()) {
+            // Each event is timed by callEvent
+            super.callEvents(events);
             return;
         }
-        count++;
-        Class<? extends Event> newEventClass = event.getClass();
+
+        for (Event event : events) {
+            if (this.eventClass != event.getClass()) {
+                updateEventClass(event.getClass());
+            }
+        }
+        long start = System.nanoTime();
+        try {
+            super.callEvents(events);
+        } finally {
+            timings.record(System.nanoTime() - start);
+        }
+    }
+
+    private synchronized void updateEventClass(Class<? extends Event> newEventClass) {
         if (this.eventClass == null) {
             this.eventClass = newEventClass;
         } else if (!this.eventClass.equals(newEventClass)) {
             multiple = true;
             this.eventClass = getCommonSuperclass(newEventClass, this.eventClass).asSubclass(Event.class);
         }
-        long start = System.nanoTime();
-        super.callEvent(event);
-        totalTime += System.nanoTime() - start;
     }
 
     private static Class<?> getCommonSuperclass(Class<?> class1, Class<?> class2) {
@@ -48,8 +82,7 @@ public class TimedRegisteredListener extends RegisteredListener {
      * Resets the call count and total time for this listener
      */
     public void reset() {
-        count = 0;
-        totalTime = 0;
+        timings.reset();
     }
 
     /**
@@ -58,7 +91,7 @@ public class TimedRegisteredListener extends RegisteredListener {
      * @return Times this listener has been called
      */
     public int getCount() {
-        return count;
+        return (int) timings.getCount();
     }
 
     /**
@@ -67,7 +100,16 @@ public class TimedRegisteredListener extends RegisteredListener {
      * @return Total time for all calls of this listener
      */
     public long getTotalTime() {
-        return totalTime;
+        return timings.getTotalTime();
+    }
+
+    /**
+     * Gets the distribution of the time calls to this listener have taken
+     *
+     * @return Histogram of call times for this listener
+     */
+    public TimingHistogram getTimings() {
+        return timings;
     }
 
     /**
@@ -0,0 +1,149 @@
+package org.bukkit.plugin;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * A thread safe histogram of durations in nanoseconds.
+ * <p>
+ * Durations are counted in buckets that double in width with every power of
+ * two, each divided into {@value #SUB_BUCKETS} equal sub-buckets. Percentiles
+ * are therefore reported within 12.5% of the recorded value, with a fixed
+ * memory cost independent of the number or range of recorded values. The
+ * total, count and maximum are exact.
+ */
+public final class TimingHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalTime = new AtomicLong();
+    private final AtomicLong maxTime = new AtomicLong();
+    private volatile long maxTimestamp = 0;
+
+    /**
+     * Records a single duration
+     *
+     * @param nanos the duration in nanoseconds; negative values are counted
+     *     as zero
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(bucketIndex(nanos));
+        count.incrementAndGet();
+        totalTime.addAndGet(nanos);
+
+        long max;
+        while (nanos > (max = maxTime.get())) {
+            if (maxTime.compareAndSet(max, nanos)) {
+                maxTimestamp = System.currentTimeMillis();
+                break;
+            }
+        }
+    }
+
+    /**
+     * Clears all recorded durations
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        totalTime.set(0);
+        maxTime.set(0);
+        maxTimestamp = 0;
+    }
+
+    /**
+     * Gets the number of recorded durations
+     *
+     * @return the number of recorded durations
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Gets the sum of all recorded durations
+     *
+     * @return the total time in nanoseconds
+     */
+    public long getTotalTime() {
+        return totalTime.get();
+    }
+
+    /**
+     * Gets the longest recorded duration
+     *
+     * @return the maximum time in nanoseconds
+     */
+    public long getMaxTime() {
+        return maxTime.get();
+    }
+
+    /**
+     * Gets when the longest duration was recorded
+     *
+     * @return the time in milliseconds since the epoch, or 0 if nothing has
+     *     been recorded
+     */
+    public long getMaxTimestamp() {
+        return maxTimestamp;
+    }
+
+    /**
+     * Gets an approximation of the given percentile of recorded durations
+     *
+     * @param percentile the percentile, between 0 and 100 inclusive
+     * @return the highest duration in nanoseconds of the bucket containing
+     *     the percentile, or 0 if nothing has been recorded
+     */
+    public long getPercentile(double percentile) {
+        Validate.isTrue(percentile >= 0 && percentile <= 100, "Percentile must be between 0 and 100");
+
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts[i] = buckets.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(bucketUpperBound(i), getMaxTime());
+            }
+        }
+        return getMaxTime();
+    }
+
+    private static int bucketIndex(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+    }
+}
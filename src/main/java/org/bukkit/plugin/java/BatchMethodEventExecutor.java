@@ -0,0 +1,73 @@
+package org.bukkit.plugin.java;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.bukkit.event.Event;
+import org.bukkit.event.EventException;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.BatchEventExecutor;
+
+/**
+ * A BatchEventExecutor bound to a single {@link
+ * org.bukkit.event.EventHandler} method taking a list of events.
+ * <p>
+ * The method is invoked reflectively, once per batch. Events that are not
+ * instances of the handled event class are left out of the list passed to
+ * it.
+ */
+final class BatchMethodEventExecutor implements BatchEventExecutor {
+    private final Class<? extends Event> eventClass;
+    private final Method method;
+
+    BatchMethodEventExecutor(final Class<? extends Event> eventClass, final Method method) {
+        this.eventClass = eventClass;
+        this.method = method;
+        // Suppresses the access check performed on every invocation
+        method.setAccessible(true);
+    }
+
+    public void execute(Listener listener, Event event) throws EventException {
+        if (eventClass.isInstance(event)) {
+            invoke(listener, Collections.singletonList(event));
+        }
+    }
+
+    public void execute(Listener listener, List<? extends Event> events) throws EventException {
+        List<Event> accepted = null;
+        for (int i = 0; i < events.size(); i++) {
+            Event event = events.get(i);
+            if (!eventClass.isInstance(event)) {
+                if (accepted == null) {
+                    accepted = new ArrayList<Event>(events.subList(0, i));
+                }
+            } else if (accepted != null) {
+                accepted.add(event);
+            }
+        }
+
+        if (accepted == null) {
+            invoke(listener, events);
+        } else if (!accepted.isEmpty()) {
+            invoke(listener, accepted);
+        }
+    }
+
+    private void invoke(Listener listener, List<? extends Event> events) throws EventException {
+        try {
+            method.invoke(listener, Collections.unmodifiableList(events));
+        } catch (InvocationTargetException ex) {
+            throw new EventException(ex.getCause());
+        } catch (Throwable t) {
+            throw new EventException(t);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BatchMethodEventExecutor{" + method.toGenericString() + "}";
+    }
+}
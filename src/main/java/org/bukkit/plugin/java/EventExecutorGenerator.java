@@ -0,0 +1,227 @@
+package org.bukkit.plugin.java;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bukkit.plugin.EventExecutor;
+
+/**
+ * Generates an {@link EventExecutor} class calling a single event handler
+ * method directly, so dispatch does not go through {@link Method#invoke}.
+ * <p>
+ * The class is defined in the class loader and package of the class
+ * declaring the method, which gives it the same access to the method as
+ * the declaring class. It is written as a version 49 class file, which
+ * needs no stack map frames and is accepted by every supported runtime.
+ */
+final class EventExecutorGenerator {
+    private static final String EXECUTOR = "org/bukkit/plugin/EventExecutor";
+    private static final String OBJECT = "java/lang/Object";
+    private static final String EXECUTE_DESCRIPTOR = "(Lorg/bukkit/event/Listener;Lorg/bukkit/event/Event;)V";
+
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    private EventExecutorGenerator() {}
+
+    /**
+     * Generates an executor calling the given method with the listener and
+     * event, without checking the type of the event
+     *
+     * @param method the event handler method
+     * @return the executor, or null if the method cannot be called from a
+     *     generated class and must be invoked reflectively
+     */
+    static EventExecutor generate(final Method method) {
+        final Class<?> owner = method.getDeclaringClass();
+        final Class<?> eventClass = method.getParameterTypes()[0];
+        if (!(owner.getClassLoader() instanceof PluginClassLoader)
+                || owner.isInterface()
+                || Modifier.isPrivate(method.getModifiers())
+                || !isAccessible(eventClass, owner)) {
+            return null;
+        }
+
+        final String name = owner.getName() + "$$EventExecutor$" + counter.incrementAndGet();
+        try {
+            byte[] bytes = createClass(name.replace('.', '/'), method);
+            Class<?> executorClass = ((PluginClassLoader) owner.getClassLoader()).defineGeneratedClass(name, bytes);
+            return executorClass.asSubclass(EventExecutor.class).newInstance();
+        } catch (Throwable t) {
+            // Anything the runtime refuses falls back to reflection
+            return null;
+        }
+    }
+
+    private static boolean isAccessible(final Class<?> type, final Class<?> from) {
+        if (type.getClassLoader() == from.getClassLoader() && getPackageName(type).equals(getPackageName(from))) {
+            return true;
+        }
+        for (Class<?> clazz = type; clazz != null; clazz = clazz.getEnclosingClass()) {
+            if (!Modifier.isPublic(clazz.getModifiers())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String getPackageName(final Class<?> type) {
+        String name = type.getName();
+        int dot = name.lastIndexOf('.');
+        return dot == -1 ? "" : name.substring(0, dot);
+    }
+
+    private static byte[] createClass(final String name, final Method method) throws IOException {
+        final String owner = method.getDeclaringClass().getName().replace('.', '/');
+        final String event = method.getParameterTypes()[0].getName().replace('.', '/');
+        final Class<?> returnType = method.getReturnType();
+        final boolean isStatic = Modifier.isStatic(method.getModifiers());
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0); // minor version
+        out.writeShort(49); // major version, Java 5
+
+        out.writeShort(22); // constant pool count
+        writeUtf8(out, name); // 1
+        writeClass(out, 1); // 2
+        writeUtf8(out, OBJECT); // 3
+        writeClass(out, 3); // 4
+        writeUtf8(out, EXECUTOR); // 5
+        writeClass(out, 5); // 6
+        writeUtf8(out, "<init>"); // 7
+        writeUtf8(out, "()V"); // 8
+        writeNameAndType(out, 7, 8); // 9
+        writeMethodref(out, 4, 9); // 10
+        writeUtf8(out, "Code"); // 11
+        writeUtf8(out, "execute"); // 12
+        writeUtf8(out, EXECUTE_DESCRIPTOR); // 13
+        writeUtf8(out, owner); // 14
+        writeClass(out, 14); // 15
+        writeUtf8(out, event); // 16
+        writeClass(out, 16); // 17
+        writeUtf8(out, method.getName()); // 18
+        writeUtf8(out, getDescriptor(method)); // 19
+        writeNameAndType(out, 18, 19); // 20
+        writeMethodref(out, 15, 20); // 21
+
+        out.writeShort(Modifier.PUBLIC | Modifier.FINAL | 0x0020); // ACC_SUPER
+        out.writeShort(2); // this class
+        out.writeShort(4); // super class
+        out.writeShort(1); // interfaces
+        out.writeShort(6);
+        out.writeShort(0); // fields
+
+        out.writeShort(2); // methods
+
+        // public <init>() { super(); }
+        byte[] init = {
+            0x2A, // aload_0
+            (byte) 0xB7, 0, 10, // invokespecial Object.<init>
+            (byte) 0xB1 // return
+        };
+        writeMethod(out, 7, 8, 1, 1, init);
+
+        // public void execute(Listener listener, Event event)
+        ByteArrayOutputStream code = new ByteArrayOutputStream();
+        if (isStatic) {
+            code.write(0x2C); // aload_2
+            code.write(new byte[] { (byte) 0xC0, 0, 17 }); // checkcast event
+            code.write(new byte[] { (byte) 0xB8, 0, 21 }); // invokestatic
+        } else {
+            code.write(0x2B); // aload_1
+            code.write(new byte[] { (byte) 0xC0, 0, 15 }); // checkcast owner
+            code.write(0x2C); // aload_2
+            code.write(new byte[] { (byte) 0xC0, 0, 17 }); // checkcast event
+            code.write(new byte[] { (byte) 0xB6, 0, 21 }); // invokevirtual
+        }
+        if (returnType == long.class || returnType == double.class) {
+            code.write(0x58); // pop2
+        } else if (returnType != void.class) {
+            code.write(0x57); // pop
+        }
+        code.write(0xB1); // return
+        writeMethod(out, 12, 13, 2, 3, code.toByteArray());
+
+        out.writeShort(0); // attributes
+
+        out.flush();
+        return buffer.toByteArray();
+    }
+
+    private static void writeMethod(DataOutputStream out, int name, int descriptor, int maxStack, int maxLocals, byte[] code) throws IOException {
+        out.writeShort(Modifier.PUBLIC);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1); // attributes
+        out.writeShort(11); // Code
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+    }
+
+    private static void writeUtf8(DataOutputStream out, String value) throws IOException {
+        out.writeByte(1);
+        out.writeUTF(value);
+    }
+
+    private static void writeClass(DataOutputStream out, int name) throws IOException {
+        out.writeByte(7);
+        out.writeShort(name);
+    }
+
+    private static void writeNameAndType(DataOutputStream out, int name, int descriptor) throws IOException {
+        out.writeByte(12);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+    }
+
+    private static void writeMethodref(DataOutputStream out, int owner, int nameAndType) throws IOException {
+        out.writeByte(10);
+        out.writeShort(owner);
+        out.writeShort(nameAndType);
+    }
+
+    private static String getDescriptor(Method method) {
+        StringBuilder builder = new StringBuilder("(");
+        for (Class<?> parameter : method.getParameterTypes()) {
+            builder.append(getDescriptor(parameter));
+        }
+        return builder.append(')').append(getDescriptor(method.getReturnType())).toString();
+    }
+
+    private static String getDescriptor(Class<?> type) {
+        if (type.isArray()) {
+            return type.getName().replace('.', '/');
+        } else if (type.isPrimitive()) {
+            if (type == void.class) {
+                return "V";
+            } else if (type == boolean.class) {
+                return "Z";
+            } else if (type == byte.class) {
+                return "B";
+            } else if (type == char.class) {
+                return "C";
+            } else if (type == short.class) {
+                return "S";
+            } else if (type == int.class) {
+                return "I";
+            } else if (type == long.class) {
+                return "J";
+            } else if (type == float.class) {
+                return "F";
+            }
+            return "D";
+        }
+        return "L" + type.getName().replace('.', '/') + ";";
+    }
+}
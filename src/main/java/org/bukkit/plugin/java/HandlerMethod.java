@@ -0,0 +1,144 @@
+package org.bukkit.plugin.java;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.bukkit.event.Event;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.EventExecutor;
+
+/**
+ * The parsed form of a single {@link EventHandler} method of a listener
+ * class. It holds everything about the method that does not depend on a
+ * listener instance, so a listener class only needs to be scanned once.
+ */
+final class HandlerMethod {
+    private final Method method;
+    private final EventHandler handler;
+    private final Class<? extends Event> eventClass;
+    private final Class<?> deprecatedClass;
+    private final EventExecutor executor;
+
+    private HandlerMethod(final Method method, final EventHandler handler) {
+        this.method = method;
+        this.handler = handler;
+
+        final Class<?>[] parameters = method.getParameterTypes();
+        final Class<?> batchClass = parameters.length == 1 && parameters[0] == List.class ? getElementClass(method.getGenericParameterTypes()[0]) : null;
+        if (batchClass != null && Event.class.isAssignableFrom(batchClass)) {
+            eventClass = batchClass.asSubclass(Event.class);
+            executor = new BatchMethodEventExecutor(eventClass, method);
+        } else if (parameters.length == 1 && Event.class.isAssignableFrom(parameters[0])) {
+            eventClass = parameters[0].asSubclass(Event.class);
+            executor = new MethodEventExecutor(eventClass, method);
+        } else {
+            eventClass = null;
+            deprecatedClass = null;
+            executor = null;
+            return;
+        }
+
+        Class<?> deprecated = null;
+        for (Class<?> clazz = eventClass; Event.class.isAssignableFrom(clazz); clazz = clazz.getSuperclass()) {
+            if (clazz.getAnnotation(Deprecated.class) != null) {
+                deprecated = clazz;
+                break;
+            }
+        }
+        deprecatedClass = deprecated;
+    }
+
+    /**
+     * Gets the element class of a list type, such as {@code BlockEvent} for
+     * {@code List<BlockEvent>} or {@code List<? extends BlockEvent>}
+     *
+     * @param type the generic list type
+     * @return the element class, or null if it is not a class
+     */
+    private static Class<?> getElementClass(final Type type) {
+        if (!(type instanceof ParameterizedType)) {
+            return null;
+        }
+
+        Type element = ((ParameterizedType) type).getActualTypeArguments()[0];
+        if (element instanceof WildcardType) {
+            Type[] upperBounds = ((WildcardType) element).getUpperBounds();
+            element = upperBounds.length == 1 ? upperBounds[0] : null;
+        }
+        return element instanceof Class ? (Class<?>) element : null;
+    }
+
+    /**
+     * Scans a listener class for its event handler methods
+     *
+     * @param listenerClass the listener class to scan
+     * @return an unmodifiable list of the handler methods found
+     * @throws NoClassDefFoundError if the listener class refers to a class
+     *     that cannot be found
+     */
+    static List<HandlerMethod> scan(final Class<? extends Listener> listenerClass) {
+        Method[] publicMethods = listenerClass.getMethods();
+        Set<Method> methods = new HashSet<Method>(publicMethods.length, Float.MAX_VALUE);
+        for (Method method : publicMethods) {
+            methods.add(method);
+        }
+        for (Method method : listenerClass.getDeclaredMethods()) {
+            methods.add(method);
+        }
+
+        List<HandlerMethod> handlers = new ArrayList<HandlerMethod>();
+        for (Method method : methods) {
+            EventHandler eh = method.getAnnotation(EventHandler.class);
+            if (eh != null) {
+                handlers.add(new HandlerMethod(method, eh));
+            }
+        }
+        return Collections.unmodifiableList(handlers);
+    }
+
+    Method getMethod() {
+        return method;
+    }
+
+    EventHandler getHandler() {
+        return handler;
+    }
+
+    /**
+     * Gets the event class this method handles
+     *
+     * @return the event class, or null if the method signature is not a
+     *     valid event handler
+     */
+    Class<? extends Event> getEventClass() {
+        return eventClass;
+    }
+
+    /**
+     * Gets the first deprecated class in the hierarchy of the handled event
+     *
+     * @return the deprecated event class, or null if there is none
+     */
+    Class<?> getDeprecatedClass() {
+        return deprecatedClass;
+    }
+
+    /**
+     * Gets the executor calling this method. Methods taking a list of events
+     * are called through a {@link org.bukkit.plugin.BatchEventExecutor}.
+     *
+     * @return the executor, or null if the method signature is not a valid
+     *     event handler
+     */
+    EventExecutor getExecutor() {
+        return executor;
+    }
+}
@@ -4,14 +4,20 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.logging.Level;
@@ -24,8 +30,8 @@ import org.bukkit.Warning.WarningState;
 import org.bukkit.configuration.serialization.ConfigurationSerializable;
 import org.bukkit.configuration.serialization.ConfigurationSerialization;
 import org.bukkit.event.Event;
-import org.bukkit.event.EventException;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.HandlerList;
 import org.bukkit.event.Listener;
 import org.bukkit.event.server.PluginDisableEvent;
 import org.bukkit.event.server.PluginEnableEvent;
@@ -36,19 +42,35 @@ import org.bukkit.plugin.InvalidPluginException;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.PluginDescriptionFile;
 import org.bukkit.plugin.PluginLoader;
+import org.bukkit.plugin.PluginStartupProfile;
 import org.bukkit.plugin.RegisteredListener;
 import org.bukkit.plugin.TimedRegisteredListener;
 import org.bukkit.plugin.UnknownDependencyException;
 import org.yaml.snakeyaml.error.YAMLException;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+
 /**
  * Represents a Java plugin loader, allowing plugins in the form of .jar
  */
 public final class JavaPluginLoader implements PluginLoader {
+    /**
+     * System property that, when true, restricts each plugin to the classes
+     * of the plugins it depends or soft depends on, directly or through
+     * other plugins, instead of the classes of every loaded plugin
+     */
+    static final String ISOLATED_PROPERTY = "org.bukkit.plugin.java.isolatedClassLoading";
+
     final Server server;
     private final Pattern[] fileFilters = new Pattern[] { Pattern.compile("\\.jar$"), };
-    private final Map<String, Class<?>> classes = new HashMap<String, Class<?>>();
+    private final ConcurrentMap<String, Class<?>> classes = new ConcurrentHashMap<String, Class<?>>();
     private final Map<String, PluginClassLoader> loaders = new LinkedHashMap<String, PluginClassLoader>();
+    private final Map<String, PluginClassLoader> classOwners = new ConcurrentHashMap<String, PluginClassLoader>();
+    private final Set<PluginClassLoader> unindexedLoaders = new CopyOnWriteArraySet<PluginClassLoader>();
+    private final Set<String> missingClasses = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile int loaderVersion;
+    private volatile PluginStartupProfile startupProfile = null;
 
     /**
      * This class was not meant to be constructed explicitly
@@ -59,6 +81,17 @@ public final class JavaPluginLoader implements PluginLoader {
         server = instance;
     }
 
+    /**
+     * Sets the profile that the number of classes and the jar size of each
+     * plugin are recorded to when it is enabled. This is called by the
+     * plugin manager the loader is registered with.
+     *
+     * @param profile the startup profile, or null to record nothing
+     */
+    public void setStartupProfile(PluginStartupProfile profile) {
+        this.startupProfile = profile;
+    }
+
     public Plugin loadPlugin(final File file) throws InvalidPluginException {
         Validate.notNull(file, "File cannot be null");
 
@@ -124,14 +157,15 @@ public final class JavaPluginLoader implements PluginLoader {
 
         final PluginClassLoader loader;
         try {
-            loader = new PluginClassLoader(this, getClass().getClassLoader(), description, dataFolder, file);
+            List<String> visiblePlugins = Boolean.getBoolean(ISOLATED_PROPERTY) ? getVisiblePlugins(description) : null;
+            loader = new PluginClassLoader(this, getClass().getClassLoader(), description, dataFolder, file, visiblePlugins);
         } catch (InvalidPluginException ex) {
             throw ex;
         } catch (Throwable ex) {
             throw new InvalidPluginException(ex);
         }
 
-        loaders.put(description.getName(), loader);
+        addLoader(description.getName(), loader);
 
         return loader.plugin;
     }
@@ -183,25 +217,130 @@ public final class JavaPluginLoader implements PluginLoader {
 
         if (cachedClass != null) {
             return cachedClass;
+        }
+
+        PluginClassLoader owner = classOwners.get(name);
+        if (owner != null) {
+            try {
+                cachedClass = owner.findClass(name, false);
+            } catch (ClassNotFoundException cnfe) {}
+            if (cachedClass != null) {
+                return cachedClass;
+            }
+        }
+
+        if (unindexedLoaders.isEmpty() || missingClasses.contains(name)) {
+            return null;
+        }
+
+        int version = loaderVersion;
+        for (PluginClassLoader loader : unindexedLoaders) {
+            try {
+                cachedClass = loader.findClass(name, false);
+            } catch (ClassNotFoundException cnfe) {}
+            if (cachedClass != null) {
+                return cachedClass;
+            }
+        }
+
+        synchronized (this) {
+            // A loader added during the search may provide the class
+            if (loaderVersion == version) {
+                missingClasses.add(name);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the names of the plugins a plugin depends or soft depends on,
+     * followed by the plugins those can see
+     *
+     * @param description description of the plugin
+     * @return the visible plugins, in lookup order
+     */
+    private synchronized List<String> getVisiblePlugins(final PluginDescriptionFile description) {
+        Set<String> visible = new LinkedHashSet<String>();
+        for (String name : Iterables.concat(description.getDepend(), description.getSoftDepend())) {
+            PluginClassLoader dependency = loaders.get(name);
+            if (visible.add(name) && dependency != null && dependency.getVisiblePlugins() != null) {
+                visible.addAll(dependency.getVisiblePlugins());
+            }
+        }
+        return ImmutableList.copyOf(visible);
+    }
+
+    /**
+     * Gets the class loader of a loaded plugin
+     *
+     * @param name name of the plugin
+     * @return the class loader, or null if the plugin is not loaded
+     */
+    synchronized PluginClassLoader getLoader(final String name) {
+        return loaders.get(name);
+    }
+
+    /**
+     * Registers a plugin class loader for cross-plugin class lookups
+     *
+     * @param name name of the plugin
+     * @param loader class loader of the plugin
+     */
+    private synchronized void addLoader(final String name, final PluginClassLoader loader) {
+        loaders.put(name, loader);
+
+        Set<String> names = loader.getIndexedClasses();
+        if (names == null) {
+            unindexedLoaders.add(loader);
         } else {
-            for (String current : loaders.keySet()) {
-                PluginClassLoader loader = loaders.get(current);
+            for (String className : names) {
+                if (!classOwners.containsKey(className)) {
+                    classOwners.put(className, loader);
+                }
+            }
+        }
 
-                try {
-                    cachedClass = loader.findClass(name, false);
-                } catch (ClassNotFoundException cnfe) {}
-                if (cachedClass != null) {
-                    return cachedClass;
+        // The new loader may provide classes previously looked up in vain
+        loaderVersion++;
+        missingClasses.clear();
+    }
+
+    /**
+     * Removes a plugin class loader from cross-plugin class lookups
+     *
+     * @param name name of the plugin
+     */
+    private synchronized void removeLoader(final String name) {
+        PluginClassLoader loader = loaders.remove(name);
+        if (loader == null) {
+            return;
+        }
+
+        Set<String> names = loader.getIndexedClasses();
+        if (names == null) {
+            unindexedLoaders.remove(loader);
+            return;
+        }
+
+        for (String className : names) {
+            if (classOwners.get(className) != loader) {
+                continue;
+            }
+            classOwners.remove(className);
+
+            // Hand the name to the next plugin providing it, in load order
+            for (PluginClassLoader other : loaders.values()) {
+                Set<String> otherNames = other.getIndexedClasses();
+                if (otherNames != null && otherNames.contains(className)) {
+                    classOwners.put(className, other);
+                    break;
                 }
             }
         }
-        return null;
     }
 
     void setClass(final String name, final Class<?> clazz) {
-        if (!classes.containsKey(name)) {
-            classes.put(name, clazz);
-
+        if (classes.putIfAbsent(name, clazz) == null) {
             if (ConfigurationSerializable.class.isAssignableFrom(clazz)) {
                 Class<? extends ConfigurationSerializable> serializable = clazz.asSubclass(ConfigurationSerializable.class);
                 ConfigurationSerialization.registerClass(serializable);
@@ -229,45 +368,33 @@ public final class JavaPluginLoader implements PluginLoader {
 
         boolean useTimings = server.getPluginManager().useTimings();
         Map<Class<? extends Event>, Set<RegisteredListener>> ret = new HashMap<Class<? extends Event>, Set<RegisteredListener>>();
-        Set<Method> methods;
+        List<HandlerMethod> handlers;
         try {
-            Method[] publicMethods = listener.getClass().getMethods();
-            methods = new HashSet<Method>(publicMethods.length, Float.MAX_VALUE);
-            for (Method method : publicMethods) {
-                methods.add(method);
-            }
-            for (Method method : listener.getClass().getDeclaredMethods()) {
-                methods.add(method);
-            }
+            handlers = getHandlerMethods(listener.getClass());
         } catch (NoClassDefFoundError e) {
             plugin.getLogger().severe("Plugin " + plugin.getDescription().getFullName() + " has failed to register events for " + listener.getClass() + " because " + e.getMessage() + " does not exist.");
             return ret;
         }
 
-        for (final Method method : methods) {
-            final EventHandler eh = method.getAnnotation(EventHandler.class);
-            if (eh == null) continue;
-            final Class<?> checkClass;
-            if (method.getParameterTypes().length != 1 || !Event.class.isAssignableFrom(checkClass = method.getParameterTypes()[0])) {
+        for (final HandlerMethod handler : handlers) {
+            final Method method = handler.getMethod();
+            final Class<? extends Event> eventClass = handler.getEventClass();
+            if (eventClass == null) {
                 plugin.getLogger().severe(plugin.getDescription().getFullName() + " attempted to register an invalid EventHandler method signature \"" + method.toGenericString() + "\" in " + listener.getClass());
                 continue;
             }
-            final Class<? extends Event> eventClass = checkClass.asSubclass(Event.class);
-            method.setAccessible(true);
+            final EventHandler eh = handler.getHandler();
             Set<RegisteredListener> eventSet = ret.get(eventClass);
             if (eventSet == null) {
                 eventSet = new HashSet<RegisteredListener>();
                 ret.put(eventClass, eventSet);
             }
 
-            for (Class<?> clazz = eventClass; Event.class.isAssignableFrom(clazz); clazz = clazz.getSuperclass()) {
-                // This loop checks for extending deprecated events
-                if (clazz.getAnnotation(Deprecated.class) != null) {
-                    Warning warning = clazz.getAnnotation(Warning.class);
-                    WarningState warningState = server.getWarningState();
-                    if (!warningState.printFor(warning)) {
-                        break;
-                    }
+            final Class<?> clazz = handler.getDeprecatedClass();
+            if (clazz != null) {
+                Warning warning = clazz.getAnnotation(Warning.class);
+                WarningState warningState = server.getWarningState();
+                if (warningState.printFor(warning)) {
                     plugin.getLogger().log(
                             Level.WARNING,
                             String.format(
@@ -279,24 +406,10 @@ public final class JavaPluginLoader implements PluginLoader {
                                     (warning != null && warning.reason().length() != 0) ? warning.reason() : "Server performance will be affected",
                                     Arrays.toString(plugin.getDescription().getAuthors().toArray())),
                             warningState == WarningState.ON ? new AuthorNagException(null) : null);
-                    break;
                 }
             }
 
-            EventExecutor executor = new EventExecutor() {
-                public void execute(Listener listener, Event event) throws EventException {
-                    try {
-                        if (!eventClass.isAssignableFrom(event.getClass())) {
-                            return;
-                        }
-                        method.invoke(listener, event);
-                    } catch (InvocationTargetException ex) {
-                        throw new EventException(ex.getCause());
-                    } catch (Throwable t) {
-                        throw new EventException(t);
-                    }
-                }
-            };
+            EventExecutor executor = handler.getExecutor();
             if (useTimings) {
                 eventSet.add(new TimedRegisteredListener(listener, executor, eh.priority(), plugin, eh.ignoreCancelled()));
             } else {
@@ -306,6 +419,22 @@ public final class JavaPluginLoader implements PluginLoader {
         return ret;
     }
 
+    /**
+     * Gets the event handler methods of a listener class. Classes defined by
+     * a plugin are scanned once and cached in that plugin's class loader, so
+     * the cache is released together with the plugin's classes.
+     *
+     * @param listenerClass the listener class
+     * @return the handler methods of the class
+     */
+    private List<HandlerMethod> getHandlerMethods(Class<? extends Listener> listenerClass) {
+        ClassLoader classLoader = listenerClass.getClassLoader();
+        if (classLoader instanceof PluginClassLoader) {
+            return ((PluginClassLoader) classLoader).getHandlerMethods(listenerClass);
+        }
+        return HandlerMethod.scan(listenerClass);
+    }
+
     public void enablePlugin(final Plugin plugin) {
         Validate.isTrue(plugin instanceof JavaPlugin, "Plugin is not associated with this PluginLoader");
 
@@ -317,7 +446,7 @@ public final class JavaPluginLoader implements PluginLoader {
             String pluginName = jPlugin.getDescription().getName();
 
             if (!loaders.containsKey(pluginName)) {
-                loaders.put(pluginName, (PluginClassLoader) jPlugin.getClassLoader());
+                addLoader(pluginName, (PluginClassLoader) jPlugin.getClassLoader());
             }
 
             try {
@@ -326,6 +455,12 @@ public final class JavaPluginLoader implements PluginLoader {
                 server.getLogger().log(Level.SEVERE, "Error occurred while enabling " + plugin.getDescription().getFullName() + " (Is it up to date?)", ex);
             }
 
+            PluginStartupProfile profile = startupProfile;
+            if (profile != null && profile.isRecording()) {
+                PluginClassLoader loader = (PluginClassLoader) jPlugin.getClassLoader();
+                profile.recordClasses(pluginName, loader.getDefinedClassCount(), jPlugin.getFile().length());
+            }
+
             // Perhaps abort here, rather than continue going, but as it stands,
             // an abort is not possible the way it's currently written
             server.getPluginManager().callEvent(new PluginEnableEvent(plugin));
@@ -340,6 +475,8 @@ public final class JavaPluginLoader implements PluginLoader {
             plugin.getLogger().info(message);
 
             server.getPluginManager().callEvent(new PluginDisableEvent(plugin));
+            // Baked handler lists only leave out disabled plugins when rebaked
+            HandlerList.unregisterAll(plugin);
 
             JavaPlugin jPlugin = (JavaPlugin) plugin;
             ClassLoader cloader = jPlugin.getClassLoader();
@@ -350,16 +487,64 @@ public final class JavaPluginLoader implements PluginLoader {
                 server.getLogger().log(Level.SEVERE, "Error occurred while disabling " + plugin.getDescription().getFullName() + " (Is it up to date?)", ex);
             }
 
-            loaders.remove(jPlugin.getDescription().getName());
+            unregister(jPlugin.getDescription().getName(), cloader);
+        }
+    }
 
-            if (cloader instanceof PluginClassLoader) {
-                PluginClassLoader loader = (PluginClassLoader) cloader;
-                Set<String> names = loader.getClasses();
+    /**
+     * Disables a plugin and removes its classes from cross-plugin class
+     * lookups, whether or not it was enabled. The plugin cannot be used
+     * afterwards, and the same file may be loaded again.
+     *
+     * @param plugin the plugin to unload
+     */
+    public void unloadPlugin(Plugin plugin) {
+        Validate.isTrue(plugin instanceof JavaPlugin, "Plugin is not associated with this PluginLoader");
 
-                for (String name : names) {
-                    removeClass(name);
-                }
+        disablePlugin(plugin);
+        unregister(plugin.getDescription().getName(), ((JavaPlugin) plugin).getClassLoader());
+    }
+
+    private void unregister(final String pluginName, final ClassLoader cloader) {
+        removeLoader(pluginName);
+
+        if (cloader instanceof PluginClassLoader) {
+            PluginClassLoader loader = (PluginClassLoader) cloader;
+            Set<String> names = loader.getClasses();
+
+            for (String name : names) {
+                removeClass(name);
             }
         }
     }
+
+    /**
+     * Describes the lookup tables of this loader still referring to a class
+     * loader, for diagnosing class loaders that are not collected
+     *
+     * @param classLoader the class loader
+     * @return descriptions of the references, empty if there are none
+     */
+    public synchronized List<String> getReferences(ClassLoader classLoader) {
+        List<String> references = new ArrayList<String>();
+        for (Map.Entry<String, PluginClassLoader> entry : loaders.entrySet()) {
+            if (entry.getValue() == classLoader) {
+                references.add("plugin class loader " + entry.getKey());
+            }
+        }
+        for (Class<?> clazz : classes.values()) {
+            if (clazz.getClassLoader() == classLoader) {
+                references.add("class " + clazz.getName());
+            }
+        }
+        for (Map.Entry<String, PluginClassLoader> entry : classOwners.entrySet()) {
+            if (entry.getValue() == classLoader) {
+                references.add("class index entry " + entry.getKey());
+            }
+        }
+        if (unindexedLoaders.contains(classLoader)) {
+            references.add("unindexed class loader");
+        }
+        return references;
+    }
 }
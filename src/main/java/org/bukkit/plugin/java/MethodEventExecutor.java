@@ -0,0 +1,74 @@
+package org.bukkit.plugin.java;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import org.bukkit.event.Event;
+import org.bukkit.event.EventException;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.EventExecutor;
+
+/**
+ * An EventExecutor bound to a single {@link org.bukkit.event.EventHandler}
+ * method.
+ * <p>
+ * The method is called through a class generated by {@link
+ * EventExecutorGenerator} where possible, and reflectively otherwise. The
+ * executor holds no reference to a listener instance, so one executor may
+ * be shared by every instance of the declaring listener class.
+ */
+final class MethodEventExecutor implements EventExecutor {
+    private final Class<? extends Event> eventClass;
+    private final Method method;
+    private final EventExecutor invoker;
+
+    MethodEventExecutor(final Class<? extends Event> eventClass, final Method method) {
+        this.eventClass = eventClass;
+        this.method = method;
+        this.invoker = EventExecutorGenerator.generate(method);
+        if (invoker == null) {
+            // Suppresses the access check performed on every invocation
+            method.setAccessible(true);
+        }
+    }
+
+    public void execute(Listener listener, Event event) throws EventException {
+        Class<?> type = event.getClass();
+        // Identity check first; most events are fired as their exact handler type
+        if (type != eventClass && !eventClass.isAssignableFrom(type)) {
+            return;
+        }
+
+        if (invoker != null) {
+            try {
+                invoker.execute(listener, event);
+            } catch (Throwable t) {
+                // The generated class rethrows whatever the handler throws
+                throw new EventException(t);
+            }
+            return;
+        }
+
+        try {
+            method.invoke(listener, event);
+        } catch (InvocationTargetException ex) {
+            throw new EventException(ex.getCause());
+        } catch (Throwable t) {
+            throw new EventException(t);
+        }
+    }
+
+    /**
+     * Gets whether the method is called through a generated class
+     *
+     * @return false if the method is invoked reflectively
+     */
+    boolean isGenerated() {
+        return invoker != null;
+    }
+
+    @Override
+    public String toString() {
+        return "MethodEventExecutor{" + method.toGenericString() + "}";
+    }
+}
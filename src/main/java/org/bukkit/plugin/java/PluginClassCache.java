@@ -0,0 +1,270 @@
+package org.bukkit.plugin.java;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.regex.Pattern;
+
+/**
+ * An on-disk copy of the inflated class files of a plugin jar.
+ * <p>
+ * The cache is a single file per jar, memory mapped when read, so classes
+ * can be defined straight from the mapping without inflating the jar. The
+ * file name carries a fingerprint of the jar's central directory, which
+ * holds the CRC and size of every entry, so any change to the jar, such as
+ * one copied in from the update folder, selects a new cache file. Stale
+ * files for the same jar name are deleted when a new one is written.
+ * <p>
+ * Caching is disabled unless the {@value #DIRECTORY_PROPERTY} system
+ * property names the directory to keep the cache files in.
+ */
+final class PluginClassCache {
+    static final String DIRECTORY_PROPERTY = "org.bukkit.plugin.java.classCache";
+    private static final String EXTENSION = ".classcache";
+    private static final int MAGIC = 0x424b4343;
+    private static final int VERSION = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final MappedByteBuffer buffer;
+    private final Map<String, int[]> entries;
+
+    private PluginClassCache(final MappedByteBuffer buffer, final Map<String, int[]> entries) {
+        this.buffer = buffer;
+        this.entries = entries;
+    }
+
+    /**
+     * Gets the configured cache directory
+     *
+     * @return the cache directory, or null if caching is disabled
+     */
+    static File getDirectory() {
+        String path = System.getProperty(DIRECTORY_PROPERTY);
+        if (path == null || path.length() == 0) {
+            return null;
+        }
+        File directory = new File(path);
+        directory.mkdirs();
+        return directory.isDirectory() ? directory : null;
+    }
+
+    /**
+     * Opens the cache of a plugin jar, writing it first if it does not exist
+     *
+     * @param directory directory holding the cache files
+     * @param file the plugin jar file
+     * @param jar the opened plugin jar
+     * @param classNames the names of the classes in the jar
+     * @return the cache, or null if the jar cannot be cached
+     * @throws IOException if the cache cannot be written or read
+     */
+    static PluginClassCache open(final File directory, final File file, final JarFile jar, final Set<String> classNames) throws IOException {
+        if (!isCacheable(jar)) {
+            return null;
+        }
+
+        File cacheFile = new File(directory, file.getName() + "." + fingerprint(jar) + EXTENSION);
+        if (!cacheFile.isFile()) {
+            write(cacheFile, jar, classNames);
+
+            // Only the exact name format, so caches of a jar named like "Foo.jar.old.jar" are kept
+            Pattern pattern = Pattern.compile(Pattern.quote(file.getName()) + "\\.[0-9a-f]{40}" + Pattern.quote(EXTENSION));
+            File[] stale = directory.listFiles();
+            if (stale != null) {
+                for (File other : stale) {
+                    if (pattern.matcher(other.getName()).matches() && !other.equals(cacheFile)) {
+                        other.delete();
+                    }
+                }
+            }
+        }
+
+        try {
+            return read(cacheFile);
+        } catch (IOException ex) {
+            cacheFile.delete();
+            throw ex;
+        }
+    }
+
+    /**
+     * Gets the bytes of a cached class
+     *
+     * @param name the binary name of the class
+     * @return a buffer holding exactly the class file, or null if the class
+     *     is not cached
+     */
+    ByteBuffer getClassBytes(final String name) {
+        int[] entry = entries.get(name);
+        if (entry == null) {
+            return null;
+        }
+        ByteBuffer bytes = buffer.duplicate();
+        bytes.position(entry[0]);
+        bytes.limit(entry[0] + entry[1]);
+        return bytes.slice();
+    }
+
+    /**
+     * Checks that classes of the jar can be defined from the cache the same
+     * way URLClassLoader would define them from the jar. Signed and sealed
+     * jars, and jars with per-entry manifest attributes, are left to
+     * URLClassLoader.
+     */
+    private static boolean isCacheable(final JarFile jar) throws IOException {
+        Manifest manifest = jar.getManifest();
+        if (manifest != null && (!manifest.getEntries().isEmpty() || manifest.getMainAttributes().getValue(Attributes.Name.SEALED) != null)) {
+            return false;
+        }
+
+        Enumeration<JarEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+            String name = entries.nextElement().getName().toUpperCase();
+            if (name.startsWith("META-INF/") && (name.endsWith(".SF") || name.endsWith(".RSA") || name.endsWith(".DSA") || name.endsWith(".EC"))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String fingerprint(final JarFile jar) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+
+        ByteBuffer numbers = ByteBuffer.allocate(16);
+        Enumeration<JarEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+            JarEntry entry = entries.nextElement();
+            digest.update(entry.getName().getBytes(UTF8));
+            numbers.clear();
+            numbers.putLong(entry.getCrc()).putLong(entry.getSize());
+            digest.update(numbers.array());
+        }
+
+        StringBuilder builder = new StringBuilder();
+        for (byte b : digest.digest()) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    private static void write(final File cacheFile, final JarFile jar, final Set<String> classNames) throws IOException {
+        List<String> names = new ArrayList<String>();
+        List<byte[]> classes = new ArrayList<byte[]>();
+        for (String name : classNames) {
+            JarEntry entry = jar.getJarEntry(name.replace('.', '/') + ".class");
+            if (entry == null) {
+                continue;
+            }
+            names.add(name);
+            classes.add(readFully(jar.getInputStream(entry)));
+        }
+
+        File temp = new File(cacheFile.getParentFile(), cacheFile.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(names.size());
+            for (int i = 0; i < names.size(); i++) {
+                byte[] name = names.get(i).getBytes(UTF8);
+                out.writeShort(name.length);
+                out.write(name);
+                out.writeInt(classes.get(i).length);
+            }
+            for (byte[] bytes : classes) {
+                out.write(bytes);
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(cacheFile)) {
+            temp.delete();
+            if (!cacheFile.isFile()) {
+                throw new IOException("Could not create " + cacheFile);
+            }
+        }
+    }
+
+    private static PluginClassCache read(final File cacheFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(cacheFile, "r");
+        MappedByteBuffer buffer;
+        try {
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        } finally {
+            // The mapping stays valid after the file is closed
+            file.close();
+        }
+
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Unrecognized class cache " + cacheFile);
+            }
+
+            int count = buffer.getInt();
+            String[] names = new String[count];
+            int[] lengths = new int[count];
+            for (int i = 0; i < count; i++) {
+                byte[] name = new byte[buffer.getShort() & 0xFFFF];
+                buffer.get(name);
+                names[i] = new String(name, UTF8);
+                lengths[i] = buffer.getInt();
+            }
+
+            Map<String, int[]> entries = new HashMap<String, int[]>(count * 2);
+            int offset = buffer.position();
+            for (int i = 0; i < count; i++) {
+                if (lengths[i] < 0 || offset + lengths[i] > buffer.limit()) {
+                    throw new IOException("Truncated class cache " + cacheFile);
+                }
+                entries.put(names[i], new int[] { offset, lengths[i] });
+                offset += lengths[i];
+            }
+            return new PluginClassCache(buffer, Collections.unmodifiableMap(entries));
+        } catch (BufferUnderflowException ex) {
+            throw new IOException("Truncated class cache " + cacheFile, ex);
+        }
+    }
+
+    private static byte[] readFully(final InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -1,31 +1,71 @@
 package org.bukkit.plugin.java;
 
 import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.logging.Level;
 
 import org.apache.commons.lang.Validate;
+import org.bukkit.event.Listener;
 import org.bukkit.plugin.InvalidPluginException;
 import org.bukkit.plugin.PluginDescriptionFile;
 
 /**
  * A ClassLoader for plugins, to allow shared classes across multiple plugins
+ * <p>
+ * This loader is registered as parallel capable where the runtime supports
+ * it, so plugins loading classes from several threads do not serialize on
+ * the loader.
  */
 final class PluginClassLoader extends URLClassLoader {
+    static {
+        try {
+            // ClassLoader.registerAsParallelCapable() is not available before Java 7
+            Method register = ClassLoader.class.getDeclaredMethod("registerAsParallelCapable");
+            register.setAccessible(true);
+            register.invoke(null);
+        } catch (NoSuchMethodException ex) {
+        } catch (SecurityException ex) {
+        } catch (IllegalAccessException ex) {
+        } catch (InvocationTargetException ex) {
+        }
+    }
+
     private final JavaPluginLoader loader;
-    private final Map<String, Class<?>> classes = new HashMap<String, Class<?>>();
+    private final Map<String, Class<?>> classes = new ConcurrentHashMap<String, Class<?>>();
+    private final ConcurrentMap<Class<?>, List<HandlerMethod>> handlerMethods = new ConcurrentHashMap<Class<?>, List<HandlerMethod>>();
     private final PluginDescriptionFile description;
     private final File dataFolder;
     private final File file;
+    private final Set<String> indexedClasses;
+    private final List<String> visiblePlugins;
+    private final PluginClassCache classCache;
+    private final Manifest manifest;
+    private final CodeSource codeSource;
     final JavaPlugin plugin;
     private JavaPlugin pluginInit;
     private IllegalStateException pluginState;
 
-    PluginClassLoader(final JavaPluginLoader loader, final ClassLoader parent, final PluginDescriptionFile description, final File dataFolder, final File file) throws InvalidPluginException, MalformedURLException {
+    PluginClassLoader(final JavaPluginLoader loader, final ClassLoader parent, final PluginDescriptionFile description, final File dataFolder, final File file, final List<String> visiblePlugins) throws InvalidPluginException, MalformedURLException {
         super(new URL[] {file.toURI().toURL()}, parent);
         Validate.notNull(loader, "Loader cannot be null");
 
@@ -33,6 +73,30 @@ final class PluginClassLoader extends URLClassLoader {
         this.description = description;
         this.dataFolder = dataFolder;
         this.file = file;
+        this.visiblePlugins = visiblePlugins;
+
+        Set<String> index = null;
+        PluginClassCache cache = null;
+        Manifest manifest = null;
+        JarFile jar = null;
+        try {
+            jar = new JarFile(file);
+            manifest = jar.getManifest();
+            index = indexClasses(jar, manifest);
+            cache = openCache(jar, index);
+        } catch (IOException ex) {
+        } finally {
+            if (jar != null) {
+                try {
+                    jar.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        this.indexedClasses = index;
+        this.classCache = cache;
+        this.manifest = manifest;
+        this.codeSource = new CodeSource(getURLs()[0], (CodeSigner[]) null);
 
         try {
             Class<?> jarClass;
@@ -70,11 +134,19 @@ final class PluginClassLoader extends URLClassLoader {
 
         if (result == null) {
             if (checkGlobal) {
-                result = loader.getClassByName(name);
+                result = visiblePlugins == null ? loader.getClassByName(name) : findVisibleClass(name);
             }
 
             if (result == null) {
-                result = super.findClass(name);
+                try {
+                    result = findJarClass(name);
+                } catch (LinkageError error) {
+                    // Another thread may have defined the class first
+                    result = findLoadedClass(name);
+                    if (result == null) {
+                        throw error;
+                    }
+                }
 
                 if (result != null) {
                     loader.setClass(name, result);
@@ -87,10 +159,156 @@ final class PluginClassLoader extends URLClassLoader {
         return result;
     }
 
+    private Class<?> findVisibleClass(String name) {
+        for (String pluginName : visiblePlugins) {
+            // Looked up each time, so unloaded plugins are not kept reachable
+            PluginClassLoader other = loader.getLoader(pluginName);
+            if (other == null) {
+                continue;
+            }
+            Set<String> names = other.getIndexedClasses();
+            if (names != null && !names.contains(name)) {
+                continue;
+            }
+            try {
+                return other.findClass(name, false);
+            } catch (ClassNotFoundException ex) {
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the names of the plugins whose classes this loader may use
+     *
+     * @return the visible plugins, or null if classes of all plugins are
+     *     visible
+     */
+    List<String> getVisiblePlugins() {
+        return visiblePlugins;
+    }
+
     Set<String> getClasses() {
         return classes.keySet();
     }
 
+    /**
+     * Gets the number of classes this loader has defined, leaving out those
+     * found in other plugins
+     *
+     * @return the number of classes
+     */
+    int getDefinedClassCount() {
+        int count = 0;
+        for (Class<?> clazz : classes.values()) {
+            if (clazz.getClassLoader() == this) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Gets the names of all classes in this plugin's jar
+     *
+     * @return the class names, or null if this loader may also define classes
+     *     from outside its jar
+     */
+    Set<String> getIndexedClasses() {
+        return indexedClasses;
+    }
+
+    private static Set<String> indexClasses(final JarFile jar, final Manifest manifest) {
+        // Class-Path entries let URLClassLoader define classes from other jars
+        if (manifest != null && manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH) != null) {
+            return null;
+        }
+
+        Set<String> names = new HashSet<String>();
+        Enumeration<JarEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+            String entry = entries.nextElement().getName();
+            if (entry.endsWith(".class")) {
+                names.add(entry.substring(0, entry.length() - ".class".length()).replace('/', '.'));
+            }
+        }
+        return Collections.unmodifiableSet(names);
+    }
+
+    private PluginClassCache openCache(final JarFile jar, final Set<String> index) {
+        File directory = PluginClassCache.getDirectory();
+        if (directory == null || index == null) {
+            return null;
+        }
+
+        try {
+            return PluginClassCache.open(directory, file, jar, index);
+        } catch (IOException ex) {
+            loader.server.getLogger().log(Level.WARNING, "Could not use class cache for " + file.getPath(), ex);
+            return null;
+        }
+    }
+
+    /**
+     * Defines a class from this plugin's jar, reading it from the class cache
+     * when there is one
+     */
+    private Class<?> findJarClass(final String name) throws ClassNotFoundException {
+        ByteBuffer bytes = classCache == null ? null : classCache.getClassBytes(name);
+        if (bytes == null) {
+            return super.findClass(name);
+        }
+
+        int dot = name.lastIndexOf('.');
+        if (dot != -1) {
+            String packageName = name.substring(0, dot);
+            if (getPackage(packageName) == null) {
+                try {
+                    if (manifest != null) {
+                        definePackage(packageName, manifest, codeSource.getLocation());
+                    } else {
+                        definePackage(packageName, null, null, null, null, null, null, null);
+                    }
+                } catch (IllegalArgumentException ex) {
+                    // Another thread defined the package first
+                }
+            }
+        }
+        return defineClass(name, bytes, codeSource);
+    }
+
+    /**
+     * Defines a class generated at runtime in this loader, with the code
+     * source of the plugin's jar
+     *
+     * @param name binary name of the class
+     * @param bytes the class file
+     * @return the defined class
+     */
+    Class<?> defineGeneratedClass(final String name, final byte[] bytes) {
+        return defineClass(name, bytes, 0, bytes.length, codeSource);
+    }
+
+    /**
+     * Gets the cached event handler methods of a listener class defined by
+     * this class loader, scanning the class on first use. Threads scanning
+     * the same class at once all get the result of the first to finish.
+     *
+     * @param listenerClass the listener class
+     * @return the handler methods of the class
+     */
+    List<HandlerMethod> getHandlerMethods(Class<? extends Listener> listenerClass) {
+        List<HandlerMethod> result = handlerMethods.get(listenerClass);
+        if (result == null) {
+            result = HandlerMethod.scan(listenerClass);
+            List<HandlerMethod> existing = handlerMethods.putIfAbsent(listenerClass, result);
+            if (existing != null) {
+                result = existing;
+            }
+        }
+        return result;
+    }
+
     synchronized void initialize(JavaPlugin javaPlugin) {
         Validate.notNull(javaPlugin, "Initializing plugin cannot be null");
         Validate.isTrue(javaPlugin.getClass().getClassLoader() == this, "Cannot initialize plugin outside of this class loader");
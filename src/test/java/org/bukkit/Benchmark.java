@@ -0,0 +1,55 @@
+package org.bukkit;
+
+/**
+ * Minimal timing harness for the <code>*Benchmark</code> test classes.
+ * Those are not run by the default build; run one with
+ * <code>mvn test -Dtest=&lt;name&gt;Benchmark</code>.
+ */
+public final class Benchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+    private static volatile long sink;
+
+    private Benchmark() {}
+
+    /**
+     * An operation to measure
+     */
+    public interface Operation {
+        /**
+         * Runs the operation a number of times
+         *
+         * @param count the number of times to run it
+         * @return any value derived from the results, so the work cannot be
+         *     optimized away
+         */
+        long run(int count) throws Exception;
+    }
+
+    /**
+     * Measures an operation and prints the best time per operation
+     *
+     * @param name name printed with the result
+     * @param count number of operations per round
+     * @param operation the operation
+     * @return the best time per operation, in nanoseconds
+     */
+    public static double measure(String name, int count, Operation operation) throws Exception {
+        long sink = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            sink += operation.run(count);
+        }
+
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            sink += operation.run(count);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        double result = (double) best / count;
+        Benchmark.sink = sink;
+        System.out.println(String.format("%-48s %12.1f ns/op", name, result));
+        return result;
+    }
+}
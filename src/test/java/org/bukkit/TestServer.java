@@ -3,12 +3,18 @@ package org.bukkit;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.Collections;
 import java.util.Map;
 import java.util.logging.Logger;
 
 import org.bukkit.command.SimpleCommandMap;
 import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.ServicesManager;
 import org.bukkit.plugin.SimplePluginManager;
+import org.bukkit.plugin.SimpleServicesManager;
+import org.bukkit.plugin.messaging.Messenger;
+import org.bukkit.plugin.messaging.StandardMessenger;
+import org.bukkit.scheduler.BukkitScheduler;
 
 import com.google.common.collect.ImmutableMap;
 
@@ -71,6 +77,59 @@ public class TestServer implements InvocationHandler {
                         }
                     }
                 );
+            methodMap.put(
+                    Server.class.getMethod("getServicesManager"),
+                    new MethodHandler() {
+                        final ServicesManager services = new SimpleServicesManager();
+                        public Object handle(TestServer server, Object[] args) {
+                            return services;
+                        }
+                    }
+                );
+            methodMap.put(
+                    Server.class.getMethod("getMessenger"),
+                    new MethodHandler() {
+                        final Messenger messenger = new StandardMessenger();
+                        public Object handle(TestServer server, Object[] args) {
+                            return messenger;
+                        }
+                    }
+                );
+            methodMap.put(
+                    Server.class.getMethod("getScheduler"),
+                    new MethodHandler() {
+                        final BukkitScheduler scheduler = (BukkitScheduler) Proxy.newProxyInstance(BukkitScheduler.class.getClassLoader(), new Class<?>[] { BukkitScheduler.class }, new InvocationHandler() {
+                            public Object invoke(Object proxy, Method method, Object[] args) {
+                                if (method.getName().equals("getPendingTasks") || method.getName().equals("getActiveWorkers")) {
+                                    return Collections.emptyList();
+                                }
+                                if (method.getReturnType() == void.class) {
+                                    return null;
+                                }
+                                throw new UnsupportedOperationException(String.valueOf(method));
+                            }
+                        });
+                        public Object handle(TestServer server, Object[] args) {
+                            return scheduler;
+                        }
+                    }
+                );
+            methodMap.put(
+                    Server.class.getMethod("getUpdateFolder"),
+                    new MethodHandler() {
+                        public Object handle(TestServer server, Object[] args) {
+                            return "";
+                        }
+                    }
+                );
+            methodMap.put(
+                    Server.class.getMethod("getWarningState"),
+                    new MethodHandler() {
+                        public Object handle(TestServer server, Object[] args) {
+                            return Warning.WarningState.DEFAULT;
+                        }
+                    }
+                );
             methods = methodMap.build();
 
             TestServer server = new TestServer();
@@ -0,0 +1,83 @@
+package org.bukkit.event;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import org.bukkit.plugin.EventExecutor;
+import org.bukkit.plugin.RegisteredListener;
+import org.bukkit.plugin.TestPlugin;
+import org.junit.Test;
+
+public class HandlerListTest {
+    private static final EventExecutor executor = new EventExecutor() {
+        public void execute(Listener listener, Event event) {}
+    };
+
+    @Test
+    public void testHasListeners() {
+        HandlerList handlers = new HandlerList();
+        TestPlugin plugin = new TestPlugin("Test");
+        Listener listener = new Listener() {};
+        assertThat(handlers.hasListeners(), is(false));
+
+        RegisteredListener first = new RegisteredListener(listener, executor, EventPriority.LOW, plugin, false);
+        RegisteredListener second = new RegisteredListener(listener, executor, EventPriority.HIGH, plugin, true);
+        handlers.register(first);
+        handlers.register(second);
+        assertThat(handlers.hasListeners(), is(true));
+        assertThat(handlers.getRegisteredListeners().length, is(2));
+
+        handlers.unregister(first);
+        assertThat(handlers.hasListeners(), is(true));
+        handlers.unregister(first);
+        assertThat(handlers.hasListeners(), is(true));
+
+        handlers.unregister(plugin);
+        assertThat(handlers.hasListeners(), is(false));
+        assertThat(handlers.getRegisteredListeners().length, is(0));
+
+        handlers.register(first);
+        handlers.unregister(listener);
+        assertThat(handlers.hasListeners(), is(false));
+    }
+
+    @Test
+    public void testUnregisterAllIndexed() {
+        HandlerList first = new HandlerList();
+        HandlerList second = new HandlerList();
+        TestPlugin plugin = new TestPlugin("Indexed");
+        TestPlugin otherPlugin = new TestPlugin("Other");
+        Listener listener = new Listener() {};
+        Listener otherListener = new Listener() {};
+
+        first.register(new RegisteredListener(listener, executor, EventPriority.NORMAL, plugin, false));
+        second.register(new RegisteredListener(listener, executor, EventPriority.NORMAL, plugin, false));
+        second.register(new RegisteredListener(otherListener, executor, EventPriority.NORMAL, otherPlugin, false));
+        assertThat(HandlerList.getRegisteredListeners(plugin).size(), is(2));
+
+        HandlerList.unregisterAll(plugin);
+        assertThat(first.hasListeners(), is(false));
+        assertThat(second.getRegisteredListeners().length, is(1));
+        assertThat(HandlerList.getRegisteredListeners(plugin), is(empty()));
+
+        first.register(new RegisteredListener(otherListener, executor, EventPriority.LOWEST, otherPlugin, false));
+        HandlerList.unregisterAll(otherListener);
+        assertThat(first.hasListeners(), is(false));
+        assertThat(second.hasListeners(), is(false));
+    }
+
+    @Test
+    public void testBakeLeavesOutDisabledPlugins() {
+        HandlerList handlers = new HandlerList();
+        TestPlugin plugin = new TestPlugin("Enabled");
+        TestPlugin disabledPlugin = new TestPlugin("Disabled");
+        Listener listener = new Listener() {};
+        RegisteredListener registration = new RegisteredListener(listener, executor, EventPriority.NORMAL, plugin, false);
+        handlers.register(registration);
+        handlers.register(new RegisteredListener(listener, executor, EventPriority.LOW, disabledPlugin, false));
+
+        disabledPlugin.setEnabled(false);
+        assertThat(handlers.getRegisteredListeners(), is(arrayContaining(registration)));
+        assertThat(handlers.hasListeners(), is(true));
+    }
+}
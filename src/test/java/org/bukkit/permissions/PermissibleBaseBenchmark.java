@@ -0,0 +1,136 @@
+package org.bukkit.permissions;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bukkit.Benchmark;
+import org.bukkit.TestServer;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.TestPlugin;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Measures recalculating many permissibles sharing a large permission tree,
+ * with the calculated tables reused and with the tree calculated again
+ */
+public class PermissibleBaseBenchmark {
+    // A tree of GROUPS groups, each granting NODES nodes with CHILDREN children each
+    private static final int GROUPS = 20;
+    private static final int NODES = 50;
+    private static final int CHILDREN = 5;
+    private static final int PERMISSIBLES = 200;
+    private static final PluginManager pm = TestServer.getInstance().getPluginManager();
+
+    @Test
+    public void benchmarkRecalculation() throws Exception {
+        TestPlugin plugin = new TestPlugin("Benchmark");
+        Permission root = new Permission("bench.*", PermissionDefault.FALSE);
+        for (int group = 0; group < GROUPS; group++) {
+            Permission groupPerm = new Permission("bench.group" + group + ".*", PermissionDefault.FALSE);
+            for (int node = 0; node < NODES; node++) {
+                String name = "bench.group" + group + ".node" + node;
+                Permission nodePerm = new Permission(name, PermissionDefault.FALSE);
+                for (int child = 0; child < CHILDREN; child++) {
+                    nodePerm.getChildren().put(name + ".child" + child, true);
+                }
+                pm.addPermission(nodePerm);
+                groupPerm.getChildren().put(name, true);
+            }
+            pm.addPermission(groupPerm);
+            root.getChildren().put(groupPerm.getName(), true);
+        }
+        pm.addPermission(root);
+
+        final List<PermissibleBase> permissibles = new ArrayList<PermissibleBase>();
+        for (int i = 0; i < PERMISSIBLES; i++) {
+            PermissibleBase permissible = new PermissibleBase(null);
+            permissible.addAttachment(plugin, "bench.*", true);
+            permissible.addAttachment(plugin, "bench.group" + (i % GROUPS) + ".node0", false);
+            permissibles.add(permissible);
+        }
+
+        Benchmark.measure("recalculatePermissions, tables reused", PERMISSIBLES, new Benchmark.Operation() {
+            public long run(int count) {
+                long sink = 0;
+                for (int i = 0; i < count; i++) {
+                    PermissibleBase permissible = permissibles.get(i);
+                    permissible.recalculatePermissions();
+                    sink += permissible.hasPermission("bench.group0.node1.child0") ? 1 : 0;
+                }
+                return sink;
+            }
+        });
+
+        Benchmark.measure("recalculatePermissions, tree changed", PERMISSIBLES, new Benchmark.Operation() {
+            public long run(int count) {
+                Permission.invalidateChildPermissions();
+                long sink = 0;
+                for (int i = 0; i < count; i++) {
+                    PermissibleBase permissible = permissibles.get(i);
+                    permissible.recalculatePermissions();
+                    sink += permissible.hasPermission("bench.group0.node1.child0") ? 1 : 0;
+                }
+                return sink;
+            }
+        });
+
+        Benchmark.measure("hasPermission", PERMISSIBLES * 100, new Benchmark.Operation() {
+            public long run(int count) {
+                long sink = 0;
+                for (int i = 0; i < count; i++) {
+                    PermissibleBase permissible = permissibles.get(i % PERMISSIBLES);
+                    sink += permissible.hasPermission("bench.group" + 3 + ".node" + 7 + ".child2") ? 1 : 0;
+                }
+                return sink;
+            }
+        });
+    }
+
+    @Test
+    public void benchmarkWildcards() throws Exception {
+        TestPlugin plugin = new TestPlugin("Benchmark");
+        final PermissibleBase permissible = new PermissibleBase(null);
+        PermissionAttachment attachment = permissible.addAttachment(plugin);
+        for (int group = 0; group < GROUPS; group++) {
+            attachment.setPermission("bench.group" + group + ".*", true);
+            attachment.setPermission("bench.group" + group + ".node0.*", false);
+        }
+
+        System.setProperty(PermissibleBase.WILDCARD_PROPERTY, "true");
+        try {
+            permissible.recalculatePermissions();
+            Benchmark.measure("hasPermission through a wildcard", 1000000, new Benchmark.Operation() {
+                public long run(int count) {
+                    long sink = 0;
+                    for (int i = 0; i < count; i++) {
+                        sink += permissible.hasPermission("bench.group7.node0.child3") ? 1 : 0;
+                    }
+                    return sink;
+                }
+            });
+
+            // Wildcards are found without building names
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (threads instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+                long thread = Thread.currentThread().getId();
+                long before = allocations.getThreadAllocatedBytes(thread);
+                for (int i = 0; i < 1000000; i++) {
+                    permissible.hasPermission("bench.group7.node0.child3");
+                }
+                long bytes = allocations.getThreadAllocatedBytes(thread) - before;
+                System.out.println(String.format("%-48s %12.1f bytes/op", "hasPermission through a wildcard", bytes / 1000000.0));
+            }
+        } finally {
+            System.clearProperty(PermissibleBase.WILDCARD_PROPERTY);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        pm.clearPlugins();
+    }
+}
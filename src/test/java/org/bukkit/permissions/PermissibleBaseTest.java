@@ -0,0 +1,185 @@
+package org.bukkit.permissions;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import org.bukkit.TestServer;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.TestPlugin;
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+public class PermissibleBaseTest {
+    private static final PluginManager pm = TestServer.getInstance().getPluginManager();
+
+    private final TestPlugin plugin = new TestPlugin("Test");
+
+    @Test
+    public void testAttachmentChanges() {
+        Permission parent = new Permission("test.parent", PermissionDefault.FALSE);
+        parent.getChildren().put("test.child", true);
+        parent.getChildren().put("test.other", false);
+        pm.addPermission(parent);
+
+        PermissibleBase permissible = new PermissibleBase(null);
+        PermissionAttachment attachment = permissible.addAttachment(plugin, "test.parent", true);
+        assertThat(permissible.hasPermission("test.child"), is(true));
+        assertThat(permissible.hasPermission("test.other"), is(false));
+        assertThat(pm.getPermissionSubscriptions("test.child"), contains((Permissible) permissible));
+
+        attachment.setPermission("test.parent", false);
+        assertThat(permissible.hasPermission("test.child"), is(false));
+        assertThat(permissible.hasPermission("test.other"), is(true));
+
+        attachment.unsetPermission("test.parent");
+        assertThat(permissible.isPermissionSet("test.child"), is(false));
+        assertThat(pm.getPermissionSubscriptions("test.child"), is(empty()));
+    }
+
+    @Test
+    public void testLaterAttachmentOverrides() {
+        PermissibleBase permissible = new PermissibleBase(null);
+        permissible.addAttachment(plugin, "test.node", true);
+        PermissionAttachment second = permissible.addAttachment(plugin, "test.node", false);
+        assertThat(permissible.hasPermission("test.node"), is(false));
+
+        permissible.removeAttachment(second);
+        assertThat(permissible.hasPermission("test.node"), is(true));
+    }
+
+    @Test
+    public void testEffectivePermissions() {
+        pm.addPermission(new Permission("test.default", PermissionDefault.TRUE));
+
+        PermissibleBase first = new PermissibleBase(null);
+        PermissibleBase second = new PermissibleBase(null);
+        PermissionAttachment attachment = first.addAttachment(plugin, "test.node", true);
+        second.addAttachment(plugin, "test.node", true);
+
+        for (PermissionAttachmentInfo info : first.getEffectivePermissions()) {
+            assertThat(info.getPermissible(), is((Permissible) first));
+            if (info.getPermission().equals("test.node")) {
+                assertThat(info.getAttachment(), is(attachment));
+            } else {
+                assertThat(info.getPermission(), is("test.default"));
+                assertThat(info.getAttachment(), is(nullValue()));
+            }
+        }
+        assertThat(first.getEffectivePermissions().size(), is(2));
+        assertThat(second.getEffectivePermissions().size(), is(2));
+    }
+
+    @Test
+    public void testChildrenChanges() {
+        Permission parent = new Permission("test.parent", PermissionDefault.FALSE);
+        pm.addPermission(parent);
+
+        PermissibleBase permissible = new PermissibleBase(null);
+        permissible.addAttachment(plugin, "test.parent", true);
+        assertThat(permissible.isPermissionSet("test.child"), is(false));
+
+        parent.getChildren().put("test.child", true);
+        parent.recalculatePermissibles();
+        assertThat(permissible.hasPermission("test.child"), is(true));
+    }
+
+    @Test
+    public void testParentRegisteredLater() {
+        PermissibleBase permissible = new PermissibleBase(null);
+        permissible.addAttachment(plugin, "x.parent", true);
+        assertThat(permissible.isPermissionSet("x.child"), is(false));
+
+        pm.addPermission(new Permission("x.parent", ImmutableMap.of("x.child", true)));
+        permissible.recalculatePermissions();
+        assertThat(permissible.hasPermission("x.child"), is(true));
+
+        pm.removePermission("x.parent");
+        permissible.recalculatePermissions();
+        assertThat(permissible.isPermissionSet("x.child"), is(false));
+    }
+
+    @Test
+    public void testSharedTablesAfterRegistration() {
+        PermissibleBase first = new PermissibleBase(null);
+        first.addAttachment(plugin, "x.parent", true);
+        assertThat(first.isPermissionSet("x.child"), is(false));
+
+        pm.addPermission(new Permission("x.parent", ImmutableMap.of("x.child", true)));
+
+        // Must not reuse the table the first permissible calculated before
+        PermissibleBase second = new PermissibleBase(null);
+        second.addAttachment(plugin, "x.parent", true);
+        assertThat(second.hasPermission("x.child"), is(true));
+        assertThat(first.hasPermission("x.child"), is(true));
+    }
+
+    @Test
+    public void testDefaults() {
+        Permission perm = new Permission("test.default", PermissionDefault.TRUE);
+        perm.getChildren().put("test.child", true);
+        pm.addPermission(perm);
+
+        PermissibleBase permissible = new PermissibleBase(null);
+        assertThat(permissible.isPermissionSet("test.child"), is(true));
+
+        perm.setDefault(PermissionDefault.FALSE);
+        assertThat(permissible.isPermissionSet("test.child"), is(false));
+        assertThat(pm.getDefaultPermSubscriptions(false), hasItem((Permissible) permissible));
+    }
+
+    @Test
+    public void testWildcards() {
+        PermissibleBase permissible = new PermissibleBase(null);
+        permissible.addAttachment(plugin, "test.*", true);
+        PermissionAttachment attachment = permissible.addAttachment(plugin, "test.node.denied", false);
+        assertThat(permissible.hasPermission("test.node"), is(false));
+
+        System.setProperty(PermissibleBase.WILDCARD_PROPERTY, "true");
+        try {
+            permissible.recalculatePermissions();
+            assertThat(permissible.hasPermission("test.node"), is(true));
+            assertThat(permissible.hasPermission("Test.Node.Other"), is(true));
+            assertThat(permissible.hasPermission("test.node.denied"), is(false));
+            assertThat(permissible.hasPermission("other.node"), is(false));
+
+            attachment.setPermission("test.node.*", false);
+            assertThat(permissible.hasPermission("test.node.other"), is(false));
+            assertThat(permissible.hasPermission(new Permission("test.other", PermissionDefault.FALSE)), is(true));
+        } finally {
+            System.clearProperty(PermissibleBase.WILDCARD_PROPERTY);
+        }
+    }
+
+    @Test
+    public void testManyWildcards() {
+        PermissibleBase permissible = new PermissibleBase(null);
+        PermissionAttachment attachment = permissible.addAttachment(plugin);
+        for (int i = 0; i < 100; i++) {
+            attachment.setPermission("test." + i + ".*", i % 2 == 0);
+            attachment.setPermission("test." + i + ".deep.*", i % 2 != 0);
+        }
+        attachment.setPermission("*", true);
+
+        System.setProperty(PermissibleBase.WILDCARD_PROPERTY, "true");
+        try {
+            permissible.recalculatePermissions();
+            for (int i = 0; i < 100; i++) {
+                assertThat(permissible.hasPermission("test." + i + ".node"), is(i % 2 == 0));
+                assertThat(permissible.hasPermission("test." + i + ".deep.node"), is(i % 2 != 0));
+                assertThat(permissible.hasPermission("test." + i + ".deep"), is(i % 2 == 0));
+            }
+            assertThat(permissible.hasPermission("test.100.node"), is(true));
+            assertThat(permissible.hasPermission("test"), is(true));
+            assertThat(permissible.hasPermission(".test.0.node"), is(true));
+        } finally {
+            System.clearProperty(PermissibleBase.WILDCARD_PROPERTY);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        pm.clearPlugins();
+    }
+}
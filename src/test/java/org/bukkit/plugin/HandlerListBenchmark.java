@@ -0,0 +1,77 @@
+package org.bukkit.plugin;
+
+import java.lang.reflect.Method;
+
+import org.bukkit.Benchmark;
+import org.bukkit.TestServer;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Measures listener registration throughput with the cached handler lists
+ * against resolving the handler list reflectively on every registration
+ */
+public class HandlerListBenchmark {
+    private static final int REGISTRATIONS = 100000;
+    // Registrations are undone in batches, so the lists stay small
+    private static final int BATCH = 100;
+    private static final PluginManager pm = TestServer.getInstance().getPluginManager();
+
+    @Test
+    public void benchmarkRegistration() throws Exception {
+        final TestPlugin plugin = new TestPlugin("Benchmark");
+        final Listener listener = new Listener() {};
+        final EventExecutor executor = new EventExecutor() {
+            public void execute(Listener listener, Event event) {}
+        };
+
+        Benchmark.measure("registerEvent (cached HandlerList)", REGISTRATIONS, new Benchmark.Operation() {
+            public long run(int count) {
+                for (int i = 0; i < count; i++) {
+                    pm.registerEvent(PlayerMoveEvent.class, listener, EventPriority.NORMAL, executor, plugin);
+                    if (i % BATCH == BATCH - 1) {
+                        HandlerList.unregisterAll(listener);
+                    }
+                }
+                HandlerList.unregisterAll(listener);
+                return count;
+            }
+        });
+
+        Benchmark.measure("register with reflective HandlerList lookup", REGISTRATIONS, new Benchmark.Operation() {
+            public long run(int count) throws Exception {
+                for (int i = 0; i < count; i++) {
+                    // What every registration paid before the cache
+                    Method method = getRegistrationClass(PlayerMoveEvent.class).getDeclaredMethod("getHandlerList");
+                    method.setAccessible(true);
+                    HandlerList handlers = (HandlerList) method.invoke(null);
+                    handlers.register(new RegisteredListener(listener, executor, EventPriority.NORMAL, plugin, false));
+                    if (i % BATCH == BATCH - 1) {
+                        HandlerList.unregisterAll(listener);
+                    }
+                }
+                HandlerList.unregisterAll(listener);
+                return count;
+            }
+        });
+    }
+
+    private static Class<?> getRegistrationClass(Class<?> clazz) {
+        try {
+            clazz.getDeclaredMethod("getHandlerList");
+            return clazz;
+        } catch (NoSuchMethodException e) {
+            return getRegistrationClass(clazz.getSuperclass());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        pm.clearPlugins();
+    }
+}
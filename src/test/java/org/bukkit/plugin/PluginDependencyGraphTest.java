@@ -0,0 +1,73 @@
+package org.bukkit.plugin;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PluginDependencyGraphTest {
+    private static final List<String> NONE = Collections.emptyList();
+
+    @Test
+    public void testOrderAndGroups() {
+        PluginDependencyGraph graph = new PluginDependencyGraph();
+        graph.addPlugin("Economy", Arrays.asList("Vault"), NONE, NONE);
+        graph.addPlugin("Vault", NONE, NONE, NONE);
+        graph.addPlugin("Shop", Arrays.asList("Economy"), Arrays.asList("Permissions", "Absent"), NONE);
+        graph.addPlugin("Permissions", NONE, NONE, NONE);
+        graph.addPlugin("Early", NONE, NONE, Arrays.asList("Vault", "Absent"));
+        graph.resolve();
+
+        assertThat(graph.getLoadOrder(), contains("Early", "Permissions", "Vault", "Economy", "Shop"));
+        assertThat(graph.getLoadGroups(), contains(
+                Arrays.asList("Early", "Permissions"),
+                Arrays.asList("Vault"),
+                Arrays.asList("Economy"),
+                Arrays.asList("Shop")));
+        assertThat(graph.getUnknownDependencies().isEmpty(), is(true));
+        assertThat(graph.getCircularDependencies(), is(empty()));
+    }
+
+    @Test
+    public void testUnknownDependencyCascades() {
+        PluginDependencyGraph graph = new PluginDependencyGraph();
+        graph.addPlugin("Addon", Arrays.asList("Core"), NONE, NONE);
+        graph.addPlugin("Core", Arrays.asList("Missing"), NONE, NONE);
+        graph.addPlugin("Soft", NONE, Arrays.asList("Core"), NONE);
+        graph.resolve();
+
+        assertThat(graph.getLoadOrder(), contains("Soft"));
+        assertThat(graph.getUnknownDependencies().get("Core"), is("Missing"));
+        assertThat(graph.getUnknownDependencies().get("Addon"), is("Core"));
+    }
+
+    @Test
+    public void testSoftCycleIsBroken() {
+        PluginDependencyGraph graph = new PluginDependencyGraph();
+        graph.addPlugin("B", NONE, Arrays.asList("A"), NONE);
+        graph.addPlugin("A", NONE, Arrays.asList("B"), NONE);
+        graph.addPlugin("C", Arrays.asList("B"), NONE, NONE);
+        graph.resolve();
+
+        assertThat(graph.getLoadOrder(), contains("A", "B", "C"));
+        assertThat(graph.getCircularDependencies(), is(empty()));
+    }
+
+    @Test
+    public void testHardCycleIsReported() {
+        PluginDependencyGraph graph = new PluginDependencyGraph();
+        graph.addPlugin("A", Arrays.asList("B"), NONE, NONE);
+        graph.addPlugin("B", Arrays.asList("A"), NONE, NONE);
+        graph.addPlugin("C", Arrays.asList("A"), NONE, NONE);
+        graph.addPlugin("D", NONE, Arrays.asList("A"), NONE);
+        graph.resolve();
+
+        // D only soft depends on the cycle, so it still loads
+        assertThat(graph.getLoadOrder(), contains("D"));
+        assertThat(graph.getCircularDependencies(), contains("A", "B", "C"));
+    }
+}
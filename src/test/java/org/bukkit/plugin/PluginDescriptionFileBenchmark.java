@@ -0,0 +1,72 @@
+package org.bukkit.plugin;
+
+import java.io.StringReader;
+import java.util.Map;
+
+import org.bukkit.Benchmark;
+import org.bukkit.TestServer;
+import org.junit.Test;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+
+/**
+ * Measures loading a description with a large permissions section, with
+ * and without constructing the permissions, against constructing the whole
+ * document as before the permissions were deferred
+ */
+public class PluginDescriptionFileBenchmark {
+    private static final int NODES = 3000;
+    private static final int LOADS = 20;
+
+    @Test
+    public void benchmarkLoad() throws Exception {
+        TestServer.getInstance();
+        StringBuilder builder = new StringBuilder("name: Inferno\nversion: 0.1\nmain: com.example.Inferno\n");
+        builder.append("commands:\n");
+        for (int i = 0; i < 100; i++) {
+            builder.append("  command").append(i).append(":\n");
+            builder.append("    description: Command ").append(i).append('\n');
+            builder.append("    aliases: [alias").append(i).append("]\n");
+        }
+        builder.append("permissions:\n");
+        for (int i = 0; i < NODES; i++) {
+            builder.append("  inferno.node").append(i).append(":\n");
+            builder.append("    description: Node ").append(i).append('\n');
+            builder.append("    default: op\n");
+            builder.append("    children:\n");
+            builder.append("      inferno.node").append(i + 1).append(": true\n");
+        }
+        final String yaml = builder.toString();
+
+        Benchmark.measure("load description, permissions deferred", LOADS, new Benchmark.Operation() {
+            public long run(int count) throws Exception {
+                long sink = 0;
+                for (int i = 0; i < count; i++) {
+                    sink += new PluginDescriptionFile(new StringReader(yaml)).getName().length();
+                }
+                return sink;
+            }
+        });
+
+        Benchmark.measure("load description and get permissions", LOADS, new Benchmark.Operation() {
+            public long run(int count) throws Exception {
+                long sink = 0;
+                for (int i = 0; i < count; i++) {
+                    PluginDescriptionFile description = new PluginDescriptionFile(new StringReader(yaml));
+                    sink += description.getPermissions().size() + description.getCommands().size();
+                }
+                return sink;
+            }
+        });
+
+        Benchmark.measure("construct whole document", LOADS, new Benchmark.Operation() {
+            public long run(int count) throws Exception {
+                long sink = 0;
+                for (int i = 0; i < count; i++) {
+                    sink += ((Map<?, ?>) new Yaml(new SafeConstructor()).load(yaml)).size();
+                }
+                return sink;
+            }
+        });
+    }
+}
@@ -0,0 +1,129 @@
+package org.bukkit.plugin;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.permissions.Permission;
+import org.bukkit.permissions.PermissionDefault;
+import org.junit.Test;
+
+public class PluginDescriptionFileTest {
+    private static final String HEADER = "name: Inferno\nversion: 0.1\nmain: com.example.Inferno\n";
+
+    @Test
+    public void testDeferredPermissions() throws InvalidDescriptionException {
+        PluginDescriptionFile description = load(HEADER
+            + "permissions:\n"
+            + "  inferno.*:\n"
+            + "    description: Gives access to all Inferno commands\n"
+            + "    children:\n"
+            + "      inferno.flagrate: true\n"
+            + "  inferno.flagrate:\n"
+            + "    default: true\n"
+            + "# Entries after the permissions are still read\n"
+            + "depend: [NewFire]\n"
+            + "commands:\n"
+            + "  flagrate:\n"
+            + "    aliases: [combust_me]\n");
+
+        assertThat(description.getDepend(), contains("NewFire"));
+        assertThat(description.getCommands().get("flagrate").get("aliases"), is((Object) Arrays.asList("combust_me")));
+
+        List<Permission> permissions = description.getPermissions();
+        assertThat(permissions, hasSize(2));
+        Permission all = permissions.get(0).getName().equals("inferno.*") ? permissions.get(0) : permissions.get(1);
+        assertThat(all.getDescription(), is("Gives access to all Inferno commands"));
+        assertThat(all.getChildren().get("inferno.flagrate"), is(true));
+        assertThat(description.getPermissions(), is(sameInstance(permissions)));
+    }
+
+    @Test
+    public void testFlowPermissions() throws InvalidDescriptionException {
+        PluginDescriptionFile description = load(HEADER + "permissions: {inferno.flagrate: {default: false}}\n");
+        assertThat(description.getPermissions().get(0).getDefault(), is(PermissionDefault.FALSE));
+    }
+
+    @Test
+    public void testAnchoredPermissions() throws InvalidDescriptionException {
+        PluginDescriptionFile description = load(HEADER
+            + "defaults: &defaults {default: false}\n"
+            + "permissions:\n"
+            + "  inferno.flagrate: *defaults\n");
+        assertThat(description.getPermissions().get(0).getDefault(), is(PermissionDefault.FALSE));
+    }
+
+    @Test
+    public void testNoPermissions() throws InvalidDescriptionException {
+        assertThat(load(HEADER).getPermissions(), is(empty()));
+        assertThat(load(HEADER + "permissions:\n").getPermissions(), is(empty()));
+    }
+
+    @Test(expected = InvalidDescriptionException.class)
+    public void testWrongPermissionsType() throws InvalidDescriptionException {
+        load(HEADER + "permissions: [inferno.flagrate]\n");
+    }
+
+    @Test
+    public void testCommands() throws InvalidDescriptionException {
+        PluginDescriptionFile description = load(HEADER
+            + "commands:\n"
+            + "  flagrate:\n"
+            + "    description: Set yourself on fire.\n"
+            + "    aliases: [combust_me, combustMe]\n"
+            + "    usage: /<command> [player]\n"
+            + "  apocalypse:\n"
+            + "  burningdeaths: ~\n");
+
+        Map<String, Map<String, Object>> commands = description.getCommands();
+        assertThat(commands.keySet(), containsInAnyOrder("flagrate", "apocalypse", "burningdeaths"));
+        assertThat(commands.get("flagrate").get("aliases"), is((Object) Arrays.asList("combust_me", "combustMe")));
+        assertThat(commands.get("flagrate").get("usage"), is((Object) "/<command> [player]"));
+        assertThat(commands.get("apocalypse").isEmpty(), is(true));
+        assertThat(commands.get("burningdeaths").isEmpty(), is(true));
+        assertThat(description.getCommands(), is(sameInstance(commands)));
+    }
+
+    @Test
+    public void testRepeatedSections() throws InvalidDescriptionException {
+        PluginDescriptionFile description = load(HEADER
+            + "commands:\n"
+            + "  flagrate:\n"
+            + "permissions:\n"
+            + "  inferno.flagrate: {}\n"
+            + "commands: {apocalypse: {}}\n"
+            + "permissions:\n");
+        assertThat(description.getCommands().keySet(), contains("apocalypse"));
+        assertThat(description.getPermissions(), is(empty()));
+    }
+
+    @Test(expected = InvalidDescriptionException.class)
+    public void testWrongCommandsType() throws InvalidDescriptionException {
+        load(HEADER + "commands: [flagrate]\n");
+    }
+
+    @Test(expected = InvalidDescriptionException.class)
+    public void testWrongCommandType() throws InvalidDescriptionException {
+        load(HEADER + "commands:\n  flagrate: combust\n");
+    }
+
+    @Test(expected = InvalidDescriptionException.class)
+    public void testWrongPermissionType() throws InvalidDescriptionException {
+        // Checked while loading, although the permissions are otherwise deferred
+        load(HEADER + "permissions:\n  inferno.flagrate: true\n");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnconstructablePermissions() throws InvalidDescriptionException {
+        PluginDescriptionFile description = load(HEADER + "permissions:\n  inferno.flagrate: {default: !!int fire}\n");
+        description.getPermissions();
+    }
+
+    private static PluginDescriptionFile load(String yaml) throws InvalidDescriptionException {
+        return new PluginDescriptionFile(new StringReader(yaml));
+    }
+}
@@ -0,0 +1,210 @@
+package org.bukkit.plugin;
+
+import static org.junit.Assume.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.bukkit.plugin.java.JavaPlugin;
+
+/**
+ * Builds plugin jars from source at test time. Tests using it are skipped
+ * when the runtime has no system Java compiler.
+ */
+public class PluginJarBuilder {
+    private final String name;
+    private final Map<String, String> sources = new LinkedHashMap<String, String>();
+    private final StringBuilder description = new StringBuilder();
+    private final Manifest manifest = new Manifest();
+
+    /**
+     * @param name name of the plugin, whose main class is
+     *     <code>testplugin.&lt;name&gt;.Main</code>
+     */
+    public PluginJarBuilder(String name) {
+        this.name = name;
+        description.append("name: ").append(name).append('\n');
+        description.append("version: '1.0'\n");
+        description.append("main: ").append(getMain()).append('\n');
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    }
+
+    public String getMain() {
+        return "testplugin." + name.toLowerCase() + ".Main";
+    }
+
+    /**
+     * Adds lines to the plugin.yml
+     */
+    public PluginJarBuilder description(String... lines) {
+        for (String line : lines) {
+            description.append(line).append('\n');
+        }
+        return this;
+    }
+
+    /**
+     * Sets an attribute of the jar manifest
+     */
+    public PluginJarBuilder manifest(Attributes.Name name, String value) {
+        manifest.getMainAttributes().put(name, value);
+        return this;
+    }
+
+    /**
+     * Adds a class to the jar
+     *
+     * @param className binary name of the class
+     * @param source source of the class, without its package declaration
+     */
+    public PluginJarBuilder source(String className, String... source) {
+        StringBuilder builder = new StringBuilder();
+        int dot = className.lastIndexOf('.');
+        if (dot != -1) {
+            builder.append("package ").append(className.substring(0, dot)).append(";\n");
+        }
+        for (String line : source) {
+            builder.append(line).append('\n');
+        }
+        sources.put(className, builder.toString());
+        return this;
+    }
+
+    /**
+     * Adds the main class, extending JavaPlugin with the given body
+     */
+    public PluginJarBuilder main(String... body) {
+        List<String> source = new ArrayList<String>();
+        source.add("public class Main extends org.bukkit.plugin.java.JavaPlugin {");
+        source.addAll(Arrays.asList(body));
+        source.add("}");
+        return source(getMain(), source.toArray(new String[source.size()]));
+    }
+
+    /**
+     * Compiles the classes and writes the jar
+     *
+     * @param directory directory to write the jar to
+     * @param classPath additional jars or directories to compile against
+     * @return the jar
+     */
+    public File build(File directory, File... classPath) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assumeNotNull(compiler);
+
+        if (!sources.containsKey(getMain())) {
+            main();
+        }
+
+        File sourceDirectory = new File(directory, name + "-src");
+        File classDirectory = new File(directory, name + "-classes");
+        classDirectory.mkdirs();
+
+        List<String> arguments = new ArrayList<String>();
+        arguments.add("-nowarn");
+        arguments.add("-d");
+        arguments.add(classDirectory.getPath());
+        arguments.add("-classpath");
+        StringBuilder path = new StringBuilder(System.getProperty("java.class.path"));
+        path.append(File.pathSeparator).append(getLocation(JavaPlugin.class));
+        path.append(File.pathSeparator).append(getLocation(PluginJarBuilder.class));
+        for (File file : classPath) {
+            path.append(File.pathSeparator).append(file.getPath());
+        }
+        arguments.add(path.toString());
+
+        for (Map.Entry<String, String> entry : sources.entrySet()) {
+            File file = new File(sourceDirectory, entry.getKey().replace('.', '/') + ".java");
+            file.getParentFile().mkdirs();
+            write(file, entry.getValue());
+            arguments.add(file.getPath());
+        }
+
+        if (compiler.run(null, null, null, arguments.toArray(new String[arguments.size()])) != 0) {
+            throw new IllegalStateException("Could not compile " + name);
+        }
+
+        File jar = new File(directory, name + ".jar");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest);
+        try {
+            out.putNextEntry(new JarEntry("plugin.yml"));
+            out.write(description.toString().getBytes("UTF-8"));
+            addClasses(out, classDirectory, "");
+        } finally {
+            out.close();
+        }
+        return jar;
+    }
+
+    /**
+     * Gets the compiled classes of the last {@link #build(File, File...)},
+     * for compiling other plugins against
+     */
+    public File getClassDirectory(File directory) {
+        return new File(directory, name + "-classes");
+    }
+
+    private static void addClasses(JarOutputStream out, File directory, String prefix) throws IOException {
+        File[] files = directory.listFiles();
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                addClasses(out, file, prefix + file.getName() + "/");
+            } else {
+                out.putNextEntry(new JarEntry(prefix + file.getName()));
+                out.write(read(file));
+            }
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            int offset = 0;
+            while (offset < bytes.length) {
+                int read = in.read(bytes, offset, bytes.length - offset);
+                if (read == -1) {
+                    break;
+                }
+                offset += read;
+            }
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String getLocation(Class<?> clazz) {
+        try {
+            return new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -3,13 +3,45 @@ package org.bukkit.plugin;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
 import org.bukkit.TestServer;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.SimpleCommandMap;
+import org.bukkit.event.Cancellable;
 import org.bukkit.event.Event;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
 import org.bukkit.event.TestEvent;
+import org.bukkit.permissions.Permissible;
+import org.bukkit.permissions.PermissibleBase;
 import org.bukkit.permissions.Permission;
+import org.bukkit.permissions.PermissionDefault;
+import org.bukkit.plugin.java.JavaPluginLoader;
 
 import org.junit.After;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class PluginManagerTest {
     private class MutableObject {
@@ -20,6 +52,9 @@ public class PluginManagerTest {
 
     private final MutableObject store = new MutableObject();
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void testAsyncSameThread() {
         final Event event = new TestEvent(true);
@@ -123,6 +158,501 @@ public class PluginManagerTest {
         }
     }
 
+    @Test
+    public void testSyncUnlockedWhileLocked() throws InterruptedException {
+        final Event event = new TestEvent(false);
+        Thread secondThread = new Thread(
+            new Runnable() {
+                public void run() {
+                    try {
+                        pm.callEvent(event);
+                    } catch (Throwable ex) {
+                        store.value = ex;
+                    }
+                }
+            }
+        );
+        synchronized (pm) {
+            secondThread.start();
+            secondThread.join(5000);
+            assertThat("Synchronous event blocked on plugin manager lock", secondThread.isAlive(), is(false));
+        }
+        if (store.value != null) {
+            throw new RuntimeException((Throwable) store.value);
+        }
+    }
+
+    @Test
+    public void testEventProfiling() {
+        SimplePluginManager manager = (SimplePluginManager) pm;
+        RegisteredListener registration = registerTestListener();
+        try {
+            pm.callEvent(new TestEvent(false));
+            assertThat(manager.getEventProfile().isEmpty(), is(true));
+
+            manager.setEventProfiling(1);
+            pm.callEvent(new TestEvent(false));
+            pm.callEvent(new TestEvent(false));
+            assertThat(manager.getEventProfile().get(registration).getCount(), is(2L));
+
+            manager.setEventProfiling(0);
+            pm.callEvent(new TestEvent(false));
+            assertThat(manager.getEventProfile().get(registration).getCount(), is(2L));
+        } finally {
+            manager.setEventProfiling(0);
+        }
+    }
+
+    @Test
+    public void testEventProfilingRounding() {
+        SimplePluginManager manager = (SimplePluginManager) pm;
+        try {
+            manager.setEventProfiling(0.6);
+            assertThat(manager.getEventProfiling(), is(0.5));
+
+            manager.setEventProfiling(Math.pow(2, -32));
+            assertThat(manager.getEventProfiling(), is(1D / Integer.MAX_VALUE));
+
+            manager.setEventProfiling(3e-10);
+            assertThat(manager.getEventProfiling(), is(1D / Integer.MAX_VALUE));
+
+            manager.setEventProfiling(Double.MIN_VALUE);
+            assertThat(manager.getEventProfiling(), is(1D / Integer.MAX_VALUE));
+        } finally {
+            manager.setEventProfiling(0);
+        }
+    }
+
+    @Test
+    public void testCallEventsListenerByListener() {
+        final List<String> calls = new ArrayList<String>();
+        final Event first = new TestEvent(false);
+        final Event second = new TestEvent(false);
+        TestPlugin plugin = new TestPlugin("Test");
+        for (final EventPriority priority : new EventPriority[] { EventPriority.HIGH, EventPriority.LOW }) {
+            pm.registerEvent(TestEvent.class, new Listener() {}, priority, new EventExecutor() {
+                public void execute(Listener listener, Event event) {
+                    calls.add(priority + " " + (event == first ? "first" : "second"));
+                }
+            }, plugin);
+        }
+
+        pm.callEvents(Arrays.asList(first, second));
+        assertThat(calls, contains("LOW first", "LOW second", "HIGH first", "HIGH second"));
+    }
+
+    @Test
+    public void testBatchHandler() throws Exception {
+        PluginJarBuilder builder = new PluginJarBuilder("Batch");
+        builder.source(builder.getMain(),
+                "public class Main extends org.bukkit.plugin.java.JavaPlugin implements org.bukkit.event.Listener {",
+                "    public static final java.util.List<String> calls = new java.util.ArrayList<String>();",
+                "    public void onEnable() { getServer().getPluginManager().registerEvents(this, this); }",
+                "    @org.bukkit.event.EventHandler public void onBatch(java.util.List<org.bukkit.event.TestEvent> events) { calls.add(\"batch \" + events.size()); }",
+                "    @org.bukkit.event.EventHandler public void onEvent(org.bukkit.event.TestEvent event) { calls.add(\"event\"); }",
+                "}");
+        ((SimplePluginManager) pm).registerInterface(JavaPluginLoader.class);
+        Plugin plugin = pm.loadPlugin(builder.build(folder.getRoot()));
+        pm.enablePlugin(plugin);
+        @SuppressWarnings("unchecked")
+        List<String> calls = (List<String>) plugin.getClass().getField("calls").get(null);
+
+        pm.callEvents(Arrays.asList(new TestEvent(false), new TestEvent(false), new TestEvent(false)));
+        assertThat(calls, containsInAnyOrder("batch 3", "event", "event", "event"));
+
+        calls.clear();
+        pm.callEvent(new TestEvent(false));
+        assertThat(calls, containsInAnyOrder("batch 1", "event"));
+    }
+
+    @Test
+    public void testBatchExecutorIgnoreCancelled() {
+        final List<List<? extends Event>> batches = new ArrayList<List<? extends Event>>();
+        pm.registerEvent(CancellableEvent.class, new Listener() {}, EventPriority.NORMAL, new BatchEventExecutor() {
+            public void execute(Listener listener, Event event) {
+                batches.add(Arrays.asList(event));
+            }
+
+            public void execute(Listener listener, List<? extends Event> events) {
+                batches.add(new ArrayList<Event>(events));
+            }
+        }, new TestPlugin("Test"), true);
+
+        Event first = new CancellableEvent(false);
+        Event second = new CancellableEvent(false);
+        pm.callEvents(Arrays.asList(new CancellableEvent(true), first, new CancellableEvent(true), second));
+        assertThat(batches, hasSize(1));
+        assertThat(batches.get(0), contains(first, second));
+
+        batches.clear();
+        pm.callEvents(Arrays.asList(new CancellableEvent(true)));
+        assertThat(batches, is(empty()));
+    }
+
+    @Test
+    public void testCallEventsProfiling() {
+        SimplePluginManager manager = (SimplePluginManager) pm;
+        RegisteredListener registration = registerTestListener();
+        try {
+            manager.setEventProfiling(1);
+            manager.callEvents(Arrays.asList(new TestEvent(false), new TestEvent(false), new TestEvent(false)));
+            assertThat(manager.getEventProfile().get(registration).getCount(), is(3L));
+
+            manager.setEventProfiling(0.5);
+            manager.callEvents(Arrays.asList(new TestEvent(false), new TestEvent(false), new TestEvent(false), new TestEvent(false)));
+            assertThat(manager.getEventProfile().get(registration).getCount(), is(5L));
+        } finally {
+            manager.setEventProfiling(0);
+        }
+    }
+
+    @Test
+    public void testIgnoreCancelled() {
+        final List<String> calls = new ArrayList<String>();
+        TestPlugin plugin = new TestPlugin("Test");
+        for (final boolean ignoreCancelled : new boolean[] { true, false }) {
+            pm.registerEvent(CancellableEvent.class, new Listener() {}, EventPriority.NORMAL, new EventExecutor() {
+                public void execute(Listener listener, Event event) {
+                    calls.add(ignoreCancelled ? "ignoring" : "accepting");
+                }
+            }, plugin, ignoreCancelled);
+        }
+
+        pm.callEvent(new CancellableEvent(false));
+        assertThat(calls, containsInAnyOrder("ignoring", "accepting"));
+
+        calls.clear();
+        pm.callEvent(new CancellableEvent(true));
+        assertThat(calls, contains("accepting"));
+
+        calls.clear();
+        pm.callEvents(Arrays.asList(new CancellableEvent(true), new CancellableEvent(false)));
+        assertThat(calls, containsInAnyOrder("accepting", "accepting", "ignoring"));
+    }
+
+    @Test
+    public void testDisabledPluginNotCalled() throws Exception {
+        PluginJarBuilder builder = new PluginJarBuilder("Disabling");
+        builder.source(builder.getMain(),
+                "public class Main extends org.bukkit.plugin.java.JavaPlugin {",
+                "    public void onDisable() { getServer().getPluginManager().callEvent(new org.bukkit.event.TestEvent(false)); }",
+                "}");
+        final List<Event> calls = new ArrayList<Event>();
+        ((SimplePluginManager) pm).registerInterface(JavaPluginLoader.class);
+        Plugin plugin = pm.loadPlugin(builder.build(folder.getRoot()));
+        pm.enablePlugin(plugin);
+        pm.registerEvent(TestEvent.class, new Listener() {}, EventPriority.NORMAL, new EventExecutor() {
+            public void execute(Listener listener, Event event) {
+                calls.add(event);
+            }
+        }, plugin);
+
+        pm.callEvent(new TestEvent(false));
+        assertThat(calls.size(), is(1));
+
+        pm.disablePlugin(plugin);
+        assertThat(calls.size(), is(1));
+        assertThat(TestEvent.getHandlerList().getRegisteredListeners().length, is(0));
+    }
+
+    @Test
+    public void testDisableForgetsHandlerLists() throws Exception {
+        PluginJarBuilder builder = new PluginJarBuilder("Events")
+            .source("testplugin.events.LocalEvent",
+                "public class LocalEvent extends org.bukkit.event.Event {",
+                "    private static final org.bukkit.event.HandlerList handlers = new org.bukkit.event.HandlerList();",
+                "    public org.bukkit.event.HandlerList getHandlers() { return handlers; }",
+                "    public static org.bukkit.event.HandlerList getHandlerList() { return handlers; }",
+                "}");
+        builder.source(builder.getMain(),
+                "public class Main extends org.bukkit.plugin.java.JavaPlugin implements org.bukkit.event.Listener {",
+                "    public void onEnable() { getServer().getPluginManager().registerEvents(this, this); }",
+                "    @org.bukkit.event.EventHandler public void onLocal(LocalEvent event) {}",
+                "}");
+
+        SimplePluginManager manager = (SimplePluginManager) pm;
+        manager.registerInterface(JavaPluginLoader.class);
+        Plugin plugin = pm.loadPlugin(builder.build(folder.getRoot()));
+        pm.enablePlugin(plugin);
+        registerTestListener();
+
+        Class<?> eventClass = plugin.getClass().getClassLoader().loadClass("testplugin.events.LocalEvent");
+        assertThat(manager.getCachedEventClasses().contains(eventClass), is(true));
+
+        pm.disablePlugin(plugin);
+        assertThat(manager.getCachedEventClasses().contains(eventClass), is(false));
+        assertThat(manager.getCachedEventClasses().contains(TestEvent.class), is(true));
+    }
+
+    @Test
+    public void testLoadPluginsOrder() throws Exception {
+        File directory = folder.newFolder("plugins");
+        // Each plugin depends on the next, and soft depends on the one after
+        for (int i = 0; i < 12; i++) {
+            PluginJarBuilder builder = new PluginJarBuilder(String.format("Order%02d", i));
+            if (i < 11) {
+                builder.description(String.format("depend: [Order%02d]", i + 1));
+            }
+            if (i < 10) {
+                builder.description(String.format("softdepend: [Order%02d]", i + 2));
+            }
+            builder.build(directory);
+        }
+        JarOutputStream broken = new JarOutputStream(new FileOutputStream(new File(directory, "Broken.jar")));
+        try {
+            broken.putNextEntry(new JarEntry("plugin.yml"));
+            broken.write("name: [".getBytes("UTF-8"));
+        } finally {
+            broken.close();
+        }
+
+        List<String> first = loadPluginNames(directory);
+        List<String> expected = new ArrayList<String>();
+        for (int i = 11; i >= 0; i--) {
+            expected.add(String.format("Order%02d", i));
+        }
+        assertThat(first, is(expected));
+
+        pm.clearPlugins();
+        assertThat(loadPluginNames(directory), is(first));
+    }
+
+    @Test
+    public void testLazyPlugins() throws Exception {
+        File directory = folder.getRoot();
+        PluginJarBuilder library = new PluginJarBuilder("LazyLibrary")
+            .description("lazy: true")
+            .main(
+                "    public static boolean enabled;",
+                "    public void onEnable() { enabled = true; }");
+        File libraryJar = library.build(directory);
+        File userJar = new PluginJarBuilder("LazyUser")
+            .description("lazy: true", "depend: [LazyLibrary]", "commands:", "  lazyuser: {}")
+            .main(
+                "    public static boolean libraryEnabled;",
+                "    public static int commands;",
+                "    public void onEnable() { libraryEnabled = testplugin.lazylibrary.Main.enabled; }",
+                "    public boolean onCommand(org.bukkit.command.CommandSender sender, org.bukkit.command.Command command, String label, String[] args) {",
+                "        commands++;",
+                "        return true;",
+                "    }")
+            .build(directory, library.getClassDirectory(directory));
+
+        SimpleCommandMap commandMap = new SimpleCommandMap(TestServer.getInstance());
+        SimplePluginManager manager = new SimplePluginManager(TestServer.getInstance(), commandMap);
+        manager.registerInterface(JavaPluginLoader.class);
+        try {
+            Plugin libraryPlugin = manager.loadPlugin(libraryJar);
+            Plugin userPlugin = manager.loadPlugin(userJar);
+            manager.enablePlugin(libraryPlugin);
+            manager.enablePlugin(userPlugin);
+            assertThat(libraryPlugin.isEnabled(), is(false));
+            assertThat(userPlugin.isEnabled(), is(false));
+            assertThat(commandMap.getCommand("lazyuser"), is(notNullValue()));
+
+            CommandSender sender = (CommandSender) Proxy.newProxyInstance(CommandSender.class.getClassLoader(), new Class<?>[] { CommandSender.class }, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    throw new UnsupportedOperationException(String.valueOf(method));
+                }
+            });
+            assertThat(commandMap.dispatch(sender, "lazyuser"), is(true));
+            assertThat(userPlugin.isEnabled(), is(true));
+            assertThat(libraryPlugin.isEnabled(), is(true));
+            assertThat(userPlugin.getClass().getField("libraryEnabled").getBoolean(null), is(true));
+            assertThat(userPlugin.getClass().getField("commands").getInt(null), is(1));
+
+            assertThat(manager.enableLazyPlugin(userPlugin), is(false));
+            assertThat(commandMap.dispatch(sender, "lazyuser"), is(true));
+            assertThat(userPlugin.getClass().getField("commands").getInt(null), is(2));
+        } finally {
+            manager.clearPlugins();
+        }
+    }
+
+    @Test
+    public void testStartupProfile() throws Exception {
+        File directory = folder.newFolder("plugins");
+        new PluginJarBuilder("ProfiledFirst").build(directory);
+        new PluginJarBuilder("ProfiledSecond").description("depend: [ProfiledFirst]").build(directory);
+
+        SimplePluginManager manager = (SimplePluginManager) pm;
+        PluginStartupProfile profile = manager.getStartupProfile();
+        manager.registerInterface(JavaPluginLoader.class);
+        Plugin[] plugins = pm.loadPlugins(directory);
+        assertThat(plugins.length, is(2));
+        assertThat(profile.isRecording(), is(true));
+        assertThat(profile.getTime("ProfiledSecond", PluginStartupProfile.Phase.CLASS_LOADING), is(greaterThan(0L)));
+
+        File reports = new File(folder.getRoot(), "startup-profile");
+        pm.enablePlugin(plugins[0]);
+        assertThat(profile.isRecording(), is(true));
+        assertThat(reports.exists(), is(false));
+
+        pm.enablePlugin(plugins[1]);
+        assertThat(profile.isRecording(), is(false));
+        String[] names = reports.list();
+        Arrays.sort(names);
+        assertThat(names.length, is(2));
+        assertThat(names[0], both(startsWith("startup-")).and(endsWith(".json")));
+        assertThat(names[1], is(names[0].replace(".json", ".txt")));
+        assertThat(Arrays.asList(directory.list()), not(hasItem(startsWith("startup"))));
+        assertThat(profile.getTime("ProfiledSecond", PluginStartupProfile.Phase.ENABLE), is(greaterThan(0L)));
+        assertThat(profile.getClassCount("ProfiledSecond"), is(1));
+
+        // Nothing is recorded once started
+        pm.registerEvent(TestEvent.class, new Listener() {}, EventPriority.NORMAL, new EventExecutor() {
+            public void execute(Listener listener, Event event) {}
+        }, plugins[1]);
+        assertThat(profile.getTime("ProfiledSecond", PluginStartupProfile.Phase.LISTENERS), is(0L));
+    }
+
+    @Test
+    public void testStartupReports() throws Exception {
+        SimplePluginManager manager = (SimplePluginManager) pm;
+        File reports = folder.newFolder("reports");
+        manager.setStartupReportDirectory(reports);
+        try {
+            // Nothing to report
+            manager.loadPlugins(folder.newFolder("empty"));
+            assertThat(reports.list().length, is(0));
+
+            PluginStartupProfile profile = manager.getStartupProfile();
+            profile.record("Test", PluginStartupProfile.Phase.ENABLE, 1);
+            File first = profile.writeReports(reports);
+            File second = profile.writeReports(reports);
+            assertThat(second, is(not(first)));
+            assertThat(reports.list().length, is(4));
+        } finally {
+            manager.setStartupReportDirectory(null);
+        }
+    }
+
+    @Test
+    public void testReloadRecordsStartupPhases() throws Exception {
+        PluginJarBuilder builder = new PluginJarBuilder("ReloadProfiled")
+            .description("permissions:", "  reloadprofiled.use: {}");
+        builder.main("    public void onLoad() { try { Thread.sleep(1); } catch (InterruptedException ex) {} }");
+        File jar = builder.build(folder.getRoot());
+        SimplePluginManager manager = (SimplePluginManager) pm;
+        manager.registerInterface(JavaPluginLoader.class);
+        pm.loadPlugin(jar);
+
+        PluginStartupProfile profile = manager.getStartupProfile();
+        profile.start();
+        try {
+            manager.reloadPlugin("ReloadProfiled");
+            assertThat(profile.getTime("ReloadProfiled", PluginStartupProfile.Phase.ONLOAD), is(greaterThan(0L)));
+            assertThat(profile.getTime("ReloadProfiled", PluginStartupProfile.Phase.PERMISSIONS), is(greaterThan(0L)));
+        } finally {
+            profile.stop();
+        }
+    }
+
+    @Test
+    public void testReloadEnabledPlugin() throws Exception {
+        assertThat(reloadPlugin("ReloadEnabled", true), is(empty()));
+    }
+
+    @Test
+    public void testReloadNeverEnabledPlugin() throws Exception {
+        assertThat(reloadPlugin("ReloadDisabled", false), is(empty()));
+    }
+
+    /**
+     * Reloads a plugin with a permission and a class of its own, and
+     * collects the warnings logged meanwhile
+     */
+    private List<String> reloadPlugin(String name, boolean enable) throws Exception {
+        PluginJarBuilder builder = new PluginJarBuilder(name)
+            .description("permissions:", "  " + name.toLowerCase() + ".use: {}")
+            .source("testplugin." + name.toLowerCase() + ".Helper", "public class Helper {}");
+        builder.main("    public Object helper = new Helper();");
+        File jar = builder.build(folder.getRoot());
+
+        SimplePluginManager manager = (SimplePluginManager) pm;
+        manager.registerInterface(JavaPluginLoader.class);
+        Plugin plugin = pm.loadPlugin(jar);
+        for (Permission permission : plugin.getDescription().getPermissions()) {
+            pm.addPermission(permission);
+        }
+        if (enable) {
+            pm.enablePlugin(plugin);
+        }
+        Class<?> oldClass = plugin.getClass();
+        int oldHash = System.identityHashCode(oldClass);
+        plugin = null;
+        oldClass = null;
+
+        final List<String> warnings = new ArrayList<String>();
+        Handler handler = new Handler() {
+            public void publish(LogRecord record) {
+                if (record.getLevel().intValue() >= Level.WARNING.intValue()) {
+                    warnings.add(record.getMessage());
+                }
+            }
+
+            public void flush() {}
+
+            public void close() {}
+        };
+        TestServer.getInstance().getLogger().addHandler(handler);
+        try {
+            plugin = manager.reloadPlugin(name);
+        } finally {
+            TestServer.getInstance().getLogger().removeHandler(handler);
+        }
+
+        assertThat(plugin, is(notNullValue()));
+        assertThat(System.identityHashCode(plugin.getClass()), is(not(oldHash)));
+        assertThat(plugin.isEnabled(), is(enable));
+        assertThat(pm.getPlugin(name), is(sameInstance(plugin)));
+        assertThat(pm.getPermission(name.toLowerCase() + ".use"), is(notNullValue()));
+        assertThat(plugin.getClass().getField("helper").get(plugin).getClass().getClassLoader(), is(sameInstance(plugin.getClass().getClassLoader())));
+        return warnings;
+    }
+
+    private List<String> loadPluginNames(File directory) {
+        ((SimplePluginManager) pm).registerInterface(JavaPluginLoader.class);
+        List<String> names = new ArrayList<String>();
+        for (Plugin plugin : pm.loadPlugins(directory)) {
+            names.add(plugin.getName());
+        }
+        return names;
+    }
+
+    public static class CancellableEvent extends Event implements Cancellable {
+        private static final HandlerList handlers = new HandlerList();
+        private boolean cancelled;
+
+        public CancellableEvent(boolean cancelled) {
+            this.cancelled = cancelled;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public void setCancelled(boolean cancel) {
+            cancelled = cancel;
+        }
+
+        @Override
+        public HandlerList getHandlers() {
+            return handlers;
+        }
+
+        public static HandlerList getHandlerList() {
+            return handlers;
+        }
+    }
+
+    private RegisteredListener registerTestListener() {
+        pm.registerEvent(TestEvent.class, new Listener() {}, EventPriority.NORMAL, new EventExecutor() {
+            public void execute(Listener listener, Event event) {}
+        }, new TestPlugin("Test"));
+        return TestEvent.getHandlerList().getRegisteredListeners()[0];
+    }
+
     @Test
     public void testRemovePermissionByNameLower() {
         this.testRemovePermissionByName("lower");
@@ -168,6 +698,162 @@ public class PluginManagerTest {
         assertThat("Permission \"" + name + "\" was not removed", pm.getPermission(name), is(nullValue()));
     }
 
+    @Test
+    public void testPermissionBatch() {
+        final int[] recalculations = new int[1];
+        PermissibleBase permissible = new PermissibleBase(null) {
+            @Override
+            public void recalculatePermissions() {
+                recalculations[0]++;
+                super.recalculatePermissions();
+            }
+        };
+        recalculations[0] = 0;
+
+        SimplePluginManager manager = (SimplePluginManager) pm;
+        manager.beginPermissionBatch();
+        try {
+            manager.beginPermissionBatch();
+            for (int i = 0; i < 10; i++) {
+                pm.addPermission(new Permission("batch." + i, PermissionDefault.TRUE));
+            }
+            manager.endPermissionBatch();
+            assertThat(recalculations[0], is(0));
+        } finally {
+            manager.endPermissionBatch();
+        }
+
+        assertThat(recalculations[0], is(1));
+        assertThat(permissible.hasPermission("batch.5"), is(true));
+    }
+
+    @Test
+    public void testPermissionBatchThreadConfined() throws Exception {
+        final int[] recalculations = new int[1];
+        final PermissibleBase permissible = new PermissibleBase(null) {
+            @Override
+            public void recalculatePermissions() {
+                recalculations[0]++;
+                super.recalculatePermissions();
+            }
+        };
+        recalculations[0] = 0;
+
+        SimplePluginManager manager = (SimplePluginManager) pm;
+        manager.beginPermissionBatch();
+        try {
+            // Not deferred by the batch of another thread
+            Thread thread = new Thread() {
+                public void run() {
+                    pm.addPermission(new Permission("batch.other", PermissionDefault.TRUE));
+                }
+            };
+            thread.start();
+            thread.join();
+            assertThat(recalculations[0], is(1));
+            assertThat(permissible.hasPermission("batch.other"), is(true));
+        } finally {
+            manager.endPermissionBatch();
+        }
+        assertThat(recalculations[0], is(1));
+
+        try {
+            manager.endPermissionBatch();
+            fail("No exception thrown");
+        } catch (IllegalStateException ex) {
+        }
+    }
+
+    @Test
+    public void testPermissionBatchWhileEnabling() throws Exception {
+        final int[] recalculations = new int[1];
+        PermissibleBase permissible = new PermissibleBase(null) {
+            @Override
+            public void recalculatePermissions() {
+                recalculations[0]++;
+                super.recalculatePermissions();
+            }
+        };
+        recalculations[0] = 0;
+
+        File jar = new PluginJarBuilder("BatchEnable")
+            .main(
+                "    public void onEnable() {",
+                "        for (int i = 0; i < 10; i++) {",
+                "            getServer().getPluginManager().addPermission(new org.bukkit.permissions.Permission(\"batchenable.\" + i, org.bukkit.permissions.PermissionDefault.TRUE));",
+                "        }",
+                "    }")
+            .build(folder.getRoot());
+        ((SimplePluginManager) pm).registerInterface(JavaPluginLoader.class);
+        pm.enablePlugin(pm.loadPlugin(jar));
+
+        assertThat(recalculations[0], is(1));
+        assertThat(permissible.hasPermission("batchenable.9"), is(true));
+    }
+
+    @Test
+    public void testPermissionSubscriptions() {
+        PermissibleBase first = new PermissibleBase(null);
+        PermissibleBase second = new PermissibleBase(null);
+        pm.subscribeToPermission("Test.Subscription", first);
+        pm.subscribeToPermission("test.subscription", second);
+
+        Set<Permissible> subscriptions = pm.getPermissionSubscriptions("test.subscription");
+        assertThat(subscriptions, containsInAnyOrder((Permissible) first, second));
+
+        // Unsubscribing while iterating is safe
+        for (Permissible permissible : subscriptions) {
+            pm.unsubscribeFromPermission("test.subscription", permissible);
+        }
+        assertThat(pm.getPermissionSubscriptions("test.subscription"), is(empty()));
+    }
+
+    @Test
+    public void testConcurrentSubscriptions() throws Exception {
+        final List<PermissibleBase> permissibles = new ArrayList<PermissibleBase>();
+        for (int i = 0; i < 20; i++) {
+            permissibles.add(new PermissibleBase(null));
+        }
+        Permission perm = new Permission("concurrent.node", PermissionDefault.FALSE);
+        pm.addPermission(perm);
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> results = new ArrayList<Future<?>>();
+            for (int thread = 0; thread < 4; thread++) {
+                results.add(executor.submit(new Runnable() {
+                    public void run() {
+                        while (running.get()) {
+                            for (Permissible permissible : permissibles) {
+                                pm.subscribeToPermission("concurrent.node", permissible);
+                                pm.unsubscribeFromPermission("concurrent.node", permissible);
+                            }
+                        }
+                    }
+                }));
+            }
+
+            // Iterating the view and recalculating must not fail while subscriptions change
+            for (int i = 0; i < 2000; i++) {
+                for (Permissible permissible : pm.getPermissionSubscriptions("concurrent.node")) {
+                    assertThat(permissibles.contains(permissible), is(true));
+                }
+                perm.recalculatePermissibles();
+            }
+
+            running.set(false);
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            running.set(false);
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        assertThat(pm.getPermissionSubscriptions("concurrent.node"), is(empty()));
+    }
+
     @After
     public void tearDown() {
         pm.clearPlugins();
@@ -0,0 +1,59 @@
+package org.bukkit.plugin;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.plugin.PluginStartupProfile.Phase;
+import org.json.simple.JSONValue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PluginStartupProfileTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testTotals() {
+        PluginStartupProfile profile = new PluginStartupProfile();
+        profile.record("Fast", Phase.ENABLE, 10);
+        profile.record("Slow", Phase.DESCRIPTION, 50);
+        profile.record("Slow", Phase.ENABLE, 100);
+        profile.record("Slow", Phase.ENABLE, 100);
+        // Listener registration happens while enabling
+        profile.record("Slow", Phase.LISTENERS, 40);
+
+        assertThat(profile.getTime("Slow", Phase.ENABLE), is(200L));
+        assertThat(profile.getTotalTime("Slow"), is(250L));
+        assertThat(profile.getTime("Missing", Phase.ENABLE), is(0L));
+        assertThat(profile.getPlugins(), contains("Slow", "Fast"));
+    }
+
+    @Test
+    public void testReports() throws IOException {
+        PluginStartupProfile profile = new PluginStartupProfile();
+        profile.record("Example", Phase.CLASS_LOADING, 2000000);
+        profile.recordClasses("Example", 12, 4096);
+        File text = profile.writeReports(folder.getRoot());
+
+        assertThat(text.getName(), endsWith(".txt"));
+        assertThat(text.length(), is(greaterThan(0L)));
+        FileReader reader = new FileReader(new File(folder.getRoot(), text.getName().replace(".txt", ".json")));
+        try {
+            List<?> plugins = (List<?>) JSONValue.parse(reader);
+            Map<?, ?> plugin = (Map<?, ?>) plugins.get(0);
+            assertThat(plugin.get("plugin"), is((Object) "Example"));
+            assertThat(plugin.get("classes"), is((Object) 12L));
+            assertThat(plugin.get("jarSize"), is((Object) 4096L));
+            assertThat(((Map<?, ?>) plugin.get("phases")).get("CLASS_LOADING"), is((Object) 2000000L));
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package org.bukkit.plugin;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TimingHistogramTest {
+
+    @Test
+    public void testEmpty() {
+        TimingHistogram histogram = new TimingHistogram();
+        assertThat(histogram.getCount(), is(0L));
+        assertThat(histogram.getPercentile(50), is(0L));
+        assertThat(histogram.getMaxTime(), is(0L));
+    }
+
+    @Test
+    public void testPercentiles() {
+        TimingHistogram histogram = new TimingHistogram();
+        for (int i = 1; i <= 99; i++) {
+            histogram.record(1000);
+        }
+        histogram.record(40000000);
+
+        assertThat(histogram.getCount(), is(100L));
+        assertThat(histogram.getTotalTime(), is(99 * 1000L + 40000000L));
+        assertThat(histogram.getMaxTime(), is(40000000L));
+        assertThat(histogram.getMaxTimestamp(), is(greaterThan(0L)));
+        // Buckets are accurate to within 12.5%
+        assertThat(histogram.getPercentile(50), is(both(greaterThanOrEqualTo(1000L)).and(lessThan(1125L))));
+        assertThat(histogram.getPercentile(99), is(both(greaterThanOrEqualTo(1000L)).and(lessThan(1125L))));
+        assertThat(histogram.getPercentile(100), is(40000000L));
+
+        histogram.reset();
+        assertThat(histogram.getCount(), is(0L));
+        assertThat(histogram.getPercentile(100), is(0L));
+    }
+
+    @Test
+    public void testSmallAndLargeValues() {
+        TimingHistogram histogram = new TimingHistogram();
+        histogram.record(-5);
+        histogram.record(3);
+        histogram.record(Long.MAX_VALUE);
+        assertThat(histogram.getPercentile(0), is(0L));
+        assertThat(histogram.getPercentile(50), is(3L));
+        assertThat(histogram.getPercentile(100), is(Long.MAX_VALUE));
+    }
+}
@@ -0,0 +1,78 @@
+package org.bukkit.plugin.java;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Method;
+
+import org.bukkit.Benchmark;
+import org.bukkit.TestServer;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventException;
+import org.bukkit.event.Listener;
+import org.bukkit.event.TestEvent;
+import org.bukkit.plugin.EventExecutor;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginJarBuilder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Compares calling an event handler through a generated executor with
+ * calling it reflectively
+ */
+public class EventExecutorBenchmark {
+    private static final int CALLS = 5000000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void benchmarkExecutors() throws Exception {
+        PluginJarBuilder builder = new PluginJarBuilder("Benchmark");
+        builder.source(builder.getMain(),
+                "public class Main extends org.bukkit.plugin.java.JavaPlugin implements org.bukkit.event.Listener {",
+                "    public long count;",
+                "    @org.bukkit.event.EventHandler public void onEvent(org.bukkit.event.TestEvent event) { count++; }",
+                "}");
+
+        @SuppressWarnings("deprecation")
+        JavaPluginLoader loader = new JavaPluginLoader(TestServer.getInstance());
+        Plugin plugin = loader.loadPlugin(builder.build(folder.getRoot()));
+        final Listener listener = (Listener) plugin;
+        final Event event = new TestEvent(false);
+        final Method method = plugin.getClass().getMethod("onEvent", TestEvent.class);
+
+        final EventExecutor reflective = new EventExecutor() {
+            public void execute(Listener listener, Event event) throws EventException {
+                try {
+                    method.invoke(listener, event);
+                } catch (Throwable t) {
+                    throw new EventException(t);
+                }
+            }
+        };
+        final MethodEventExecutor generated = new MethodEventExecutor(TestEvent.class, method);
+        assertThat(generated.isGenerated(), is(true));
+
+        double reflectiveTime = Benchmark.measure("Method.invoke", CALLS, new Benchmark.Operation() {
+            public long run(int count) throws Exception {
+                for (int i = 0; i < count; i++) {
+                    reflective.execute(listener, event);
+                }
+                return 0;
+            }
+        });
+        double generatedTime = Benchmark.measure("MethodEventExecutor (generated)", CALLS, new Benchmark.Operation() {
+            public long run(int count) throws Exception {
+                for (int i = 0; i < count; i++) {
+                    generated.execute(listener, event);
+                }
+                return 0;
+            }
+        });
+        System.out.println(String.format("Generated executor speedup: %.2fx", reflectiveTime / generatedTime));
+        assertThat(plugin.getClass().getField("count").getLong(plugin), is(greaterThan(0L)));
+    }
+}
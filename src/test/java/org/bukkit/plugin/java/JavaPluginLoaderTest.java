@@ -0,0 +1,269 @@
+package org.bukkit.plugin.java;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.jar.Attributes;
+
+import org.bukkit.TestServer;
+import org.bukkit.event.Event;
+import org.bukkit.event.Listener;
+import org.bukkit.event.TestEvent;
+import org.bukkit.plugin.EventExecutor;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginJarBuilder;
+import org.bukkit.plugin.RegisteredListener;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Iterables;
+
+public class JavaPluginLoaderTest {
+    private static final int THREADS = 16;
+    private static final int CLASSES = 2000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testHandlerMethodsCached() throws Exception {
+        PluginJarBuilder builder = new PluginJarBuilder("Handlers");
+        builder.source("testplugin.handlers.ArenaListener",
+                "public class ArenaListener implements org.bukkit.event.Listener {",
+                "    @org.bukkit.event.EventHandler public void onEvent(org.bukkit.event.TestEvent event) {}",
+                "}");
+
+        @SuppressWarnings("deprecation")
+        final JavaPluginLoader loader = new JavaPluginLoader(TestServer.getInstance());
+        Plugin plugin = loader.loadPlugin(builder.build(folder.getRoot()));
+        final PluginClassLoader classLoader = (PluginClassLoader) plugin.getClass().getClassLoader();
+        final Class<? extends Listener> listenerClass = classLoader.loadClass("testplugin.handlers.ArenaListener").asSubclass(Listener.class);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<List<HandlerMethod>>> results = new ArrayList<Future<List<HandlerMethod>>>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                results.add(executor.submit(new Callable<List<HandlerMethod>>() {
+                    public List<HandlerMethod> call() throws Exception {
+                        start.await();
+                        return classLoader.getHandlerMethods(listenerClass);
+                    }
+                }));
+            }
+
+            start.countDown();
+            List<HandlerMethod> first = results.get(0).get();
+            assertThat(first, hasSize(1));
+            for (Future<List<HandlerMethod>> result : results) {
+                assertThat(result.get(), is(sameInstance(first)));
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // Every instance of the listener class shares the scanned executor
+        EventExecutor[] executors = new EventExecutor[2];
+        for (int i = 0; i < executors.length; i++) {
+            Map<Class<? extends Event>, Set<RegisteredListener>> listeners = loader.createRegisteredListeners(listenerClass.newInstance(), plugin);
+            executors[i] = getExecutor(Iterables.getOnlyElement(listeners.get(TestEvent.class)));
+        }
+        assertThat(executors[1], is(sameInstance(executors[0])));
+        assertThat(classLoader.getHandlerMethods(listenerClass), is(sameInstance(classLoader.getHandlerMethods(listenerClass))));
+    }
+
+    @Test
+    public void testClassIndex() throws Exception {
+        File directory = folder.getRoot();
+        PluginJarBuilder library = new PluginJarBuilder("Library")
+            .source("testplugin.library.Shared", "public class Shared {}");
+        File libraryJar = library.build(directory);
+        PluginJarBuilder user = new PluginJarBuilder("User")
+            .description("depend: [Library]")
+            .source("testplugin.user.Uses", "public class Uses extends testplugin.library.Shared {}");
+        File userJar = user.build(directory, library.getClassDirectory(directory));
+
+        @SuppressWarnings("deprecation")
+        JavaPluginLoader loader = new JavaPluginLoader(TestServer.getInstance());
+        Plugin libraryPlugin = loader.loadPlugin(libraryJar);
+        assertThat(loader.getClassByName("testplugin.user.Uses"), is(nullValue()));
+
+        // Indexed, so found before any plugin has loaded it
+        Class<?> shared = loader.getClassByName("testplugin.library.Shared");
+        assertThat(shared, is(notNullValue()));
+        assertThat(shared.getClassLoader(), is((Object) libraryPlugin.getClass().getClassLoader()));
+
+        Plugin userPlugin = loader.loadPlugin(userJar);
+        Class<?> uses = userPlugin.getClass().getClassLoader().loadClass("testplugin.user.Uses");
+        assertThat(uses.getSuperclass(), is((Object) shared));
+        assertThat(loader.getClassByName("testplugin.user.Uses"), is((Object) uses));
+    }
+
+    @Test
+    public void testMissingClassCache() throws Exception {
+        File directory = folder.getRoot();
+        @SuppressWarnings("deprecation")
+        final JavaPluginLoader loader = new JavaPluginLoader(TestServer.getInstance());
+
+        // A Class-Path entry keeps a jar out of the index
+        loader.loadPlugin(new PluginJarBuilder("Unindexed")
+            .manifest(Attributes.Name.CLASS_PATH, "lib/missing.jar")
+            .build(directory));
+
+        for (int round = 0; round < 20; round++) {
+            final String name = "testplugin.late" + round + ".Late";
+            assertThat(loader.getClassByName(name), is(nullValue()));
+
+            // Lookups racing the new loader must not cache the class as missing
+            final AtomicBoolean loading = new AtomicBoolean(true);
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            try {
+                for (int thread = 0; thread < 4; thread++) {
+                    executor.submit(new Runnable() {
+                        public void run() {
+                            while (loading.get()) {
+                                loader.getClassByName(name);
+                            }
+                        }
+                    });
+                }
+
+                loader.loadPlugin(new PluginJarBuilder("Late" + round)
+                    .manifest(Attributes.Name.CLASS_PATH, "lib/missing.jar")
+                    .source(name, "public class Late {}")
+                    .build(directory));
+            } finally {
+                loading.set(false);
+                executor.shutdown();
+                executor.awaitTermination(10, TimeUnit.SECONDS);
+            }
+
+            assertThat(loader.getClassByName(name), is(notNullValue()));
+        }
+    }
+
+    @Test
+    public void testIsolatedClassLoading() throws Exception {
+        File directory = folder.getRoot();
+        String[] find = {
+            "    public static Class<?> find(String name) {",
+            "        try {",
+            "            return Class.forName(name);",
+            "        } catch (ClassNotFoundException ex) {",
+            "            return null;",
+            "        }",
+            "    }"
+        };
+        PluginJarBuilder library = new PluginJarBuilder("IsoLibrary")
+            .source("testplugin.isolibrary.First", "public class First {}")
+            .source("testplugin.isolibrary.Second", "public class Second {}");
+        File libraryJar = library.build(directory);
+        File userJar = new PluginJarBuilder("IsoUser").description("depend: [IsoLibrary]").main(find).build(directory);
+        File softJar = new PluginJarBuilder("IsoSoft").description("softdepend: [IsoUser]").main(find).build(directory);
+        File otherJar = new PluginJarBuilder("IsoOther").main(find).build(directory);
+
+        @SuppressWarnings("deprecation")
+        JavaPluginLoader loader = new JavaPluginLoader(TestServer.getInstance());
+        Plugin libraryPlugin;
+        Plugin user;
+        Plugin soft;
+        Plugin other;
+        System.setProperty(JavaPluginLoader.ISOLATED_PROPERTY, "true");
+        try {
+            libraryPlugin = loader.loadPlugin(libraryJar);
+            user = loader.loadPlugin(userJar);
+            soft = loader.loadPlugin(softJar);
+            other = loader.loadPlugin(otherJar);
+        } finally {
+            System.clearProperty(JavaPluginLoader.ISOLATED_PROPERTY);
+        }
+
+        ClassLoader libraryLoader = libraryPlugin.getClass().getClassLoader();
+        assertThat(find(user, "testplugin.isolibrary.First").getClassLoader(), is(sameInstance(libraryLoader)));
+        // Visible through the plugin soft depended on
+        assertThat(find(soft, "testplugin.isolibrary.First").getClassLoader(), is(sameInstance(libraryLoader)));
+        assertThat(find(other, "testplugin.isolibrary.First"), is(nullValue()));
+        assertThat(find(other, "testplugin.isouser.Main"), is(nullValue()));
+
+        // Dependencies are resolved by name, so an unloaded plugin is neither
+        // reachable from the plugins depending on it nor used by them
+        loader.unloadPlugin(libraryPlugin);
+        libraryPlugin = null;
+        libraryLoader = null;
+        assertThat(find(user, "testplugin.isolibrary.Second"), is(nullValue()));
+
+        libraryPlugin = loader.loadPlugin(libraryJar);
+        assertThat(find(user, "testplugin.isolibrary.Second").getClassLoader(), is(sameInstance(libraryPlugin.getClass().getClassLoader())));
+        assertThat(find(soft, "testplugin.isolibrary.Second").getClassLoader(), is(sameInstance(libraryPlugin.getClass().getClassLoader())));
+    }
+
+    private static Class<?> find(Plugin plugin, String name) throws Exception {
+        return (Class<?>) plugin.getClass().getMethod("find", String.class).invoke(null, name);
+    }
+
+    private static EventExecutor getExecutor(RegisteredListener registration) throws Exception {
+        Field field = RegisteredListener.class.getDeclaredField("executor");
+        field.setAccessible(true);
+        return (EventExecutor) field.get(registration);
+    }
+
+    @Test
+    public void testConcurrentClassLookups() throws Exception {
+        @SuppressWarnings("deprecation")
+        final JavaPluginLoader loader = new JavaPluginLoader(TestServer.getInstance());
+        final Class<?>[] types = { String.class, Integer.class, Long.class, Double.class };
+        final CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                final int offset = thread;
+                results.add(executor.submit(new Callable<Integer>() {
+                    public Integer call() throws Exception {
+                        start.await();
+                        int misses = 0;
+                        for (int i = 0; i < CLASSES; i++) {
+                            // Every name is defined by several threads at once
+                            int index = (i + offset) % CLASSES;
+                            String name = "test.Class" + index;
+                            loader.setClass(name, types[index % types.length]);
+                            if (loader.getClassByName(name) != types[index % types.length]) {
+                                misses++;
+                            }
+                            if (loader.getClassByName("test.Missing" + index) != null) {
+                                misses++;
+                            }
+                        }
+                        return misses;
+                    }
+                }));
+            }
+
+            start.countDown();
+            for (Future<Integer> result : results) {
+                assertThat(result.get(), is(0));
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        for (int i = 0; i < CLASSES; i++) {
+            assertThat(loader.getClassByName("test.Class" + i), is((Object) types[i % types.length]));
+        }
+    }
+}
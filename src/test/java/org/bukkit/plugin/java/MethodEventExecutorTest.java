@@ -0,0 +1,96 @@
+package org.bukkit.plugin.java;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bukkit.TestServer;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventException;
+import org.bukkit.event.Listener;
+import org.bukkit.event.TestEvent;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginJarBuilder;
+import org.bukkit.plugin.RegisteredListener;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MethodEventExecutorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testGeneratedExecutors() throws Exception {
+        PluginJarBuilder builder = new PluginJarBuilder("Executors");
+        builder.source("testplugin.executors.LocalEvent",
+                "class LocalEvent extends org.bukkit.event.TestEvent {",
+                "    LocalEvent() { super(false); }",
+                "}")
+            .source(builder.getMain(),
+                "public class Main extends org.bukkit.plugin.java.JavaPlugin implements org.bukkit.event.Listener {",
+                "    public static final java.util.List<String> calls = new java.util.ArrayList<String>();",
+                "    @org.bukkit.event.EventHandler public void onPublic(org.bukkit.event.TestEvent event) { calls.add(\"onPublic\"); }",
+                "    @org.bukkit.event.EventHandler protected void onProtected(org.bukkit.event.TestEvent event) { calls.add(\"onProtected\"); }",
+                "    @org.bukkit.event.EventHandler void onPackage(org.bukkit.event.TestEvent event) { calls.add(\"onPackage\"); }",
+                "    @org.bukkit.event.EventHandler private void onPrivate(org.bukkit.event.TestEvent event) { calls.add(\"onPrivate\"); }",
+                "    @org.bukkit.event.EventHandler public static void onStatic(org.bukkit.event.TestEvent event) { calls.add(\"onStatic\"); }",
+                "    @org.bukkit.event.EventHandler public long onLong(org.bukkit.event.TestEvent event) { calls.add(\"onLong\"); return 0L; }",
+                "    @org.bukkit.event.EventHandler void onLocal(LocalEvent event) { throw new IllegalStateException(\"onLocal\"); }",
+                "    public static Object createLocalEvent() { return new LocalEvent(); }",
+                "}");
+        File jar = builder.build(folder.getRoot());
+
+        @SuppressWarnings("deprecation")
+        JavaPluginLoader loader = new JavaPluginLoader(TestServer.getInstance());
+        Plugin plugin = loader.loadPlugin(jar);
+        Listener listener = (Listener) plugin;
+
+        Map<String, Boolean> generated = new HashMap<String, Boolean>();
+        PluginClassLoader classLoader = (PluginClassLoader) plugin.getClass().getClassLoader();
+        for (HandlerMethod handler : classLoader.getHandlerMethods(listener.getClass())) {
+            generated.put(handler.getMethod().getName(), ((MethodEventExecutor) handler.getExecutor()).isGenerated());
+        }
+        assertThat(generated.get("onPublic"), is(true));
+        assertThat(generated.get("onProtected"), is(true));
+        assertThat(generated.get("onPackage"), is(true));
+        assertThat(generated.get("onStatic"), is(true));
+        assertThat(generated.get("onLong"), is(true));
+        assertThat(generated.get("onLocal"), is(true));
+        assertThat(generated.get("onPrivate"), is(false));
+
+        Map<Class<? extends Event>, Set<RegisteredListener>> listeners = loader.createRegisteredListeners(listener, plugin);
+        for (RegisteredListener registration : listeners.get(TestEvent.class)) {
+            registration.callEvent(new TestEvent(false));
+        }
+        @SuppressWarnings("unchecked")
+        List<String> calls = (List<String>) plugin.getClass().getField("calls").get(null);
+        assertThat(calls, containsInAnyOrder("onPublic", "onProtected", "onPackage", "onPrivate", "onStatic", "onLong"));
+
+        Event local = (Event) plugin.getClass().getMethod("createLocalEvent").invoke(null);
+        Set<RegisteredListener> localListeners = null;
+        for (Map.Entry<Class<? extends Event>, Set<RegisteredListener>> entry : listeners.entrySet()) {
+            if (entry.getKey() != TestEvent.class) {
+                localListeners = entry.getValue();
+            }
+        }
+        assertThat(localListeners, hasSize(1));
+        try {
+            localListeners.iterator().next().callEvent(local);
+            fail("No exception thrown");
+        } catch (EventException ex) {
+            assertThat(ex.getCause(), is(instanceOf(IllegalStateException.class)));
+            assertThat(ex.getCause().getMessage(), is("onLocal"));
+        }
+
+        // A handler for a subclass ignores events of the parent type
+        calls.clear();
+        localListeners.iterator().next().callEvent(new TestEvent(false));
+        assertThat(calls, is(empty()));
+    }
+}
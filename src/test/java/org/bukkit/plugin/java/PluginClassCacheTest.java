@@ -0,0 +1,104 @@
+package org.bukkit.plugin.java;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableSet;
+
+public class PluginClassCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCacheRoundTrip() throws IOException {
+        File directory = folder.newFolder("cache");
+        File file = writeJar(new byte[] { 1, 2, 3 });
+
+        PluginClassCache cache = open(directory, file);
+        assertThat(bytes(cache.getClassBytes("test.Example")), is(new byte[] { 1, 2, 3 }));
+        assertThat(cache.getClassBytes("test.Missing"), is(nullValue()));
+        assertThat(directory.list().length, is(1));
+
+        // Opening again reads the existing file
+        cache = open(directory, file);
+        assertThat(bytes(cache.getClassBytes("test.Example")), is(new byte[] { 1, 2, 3 }));
+        assertThat(directory.list().length, is(1));
+    }
+
+    @Test
+    public void testChangedJarReplacesCache() throws IOException {
+        File directory = folder.newFolder("cache");
+        File file = writeJar(new byte[] { 1, 2, 3 });
+        open(directory, file);
+        String first = directory.list()[0];
+
+        writeJar(new byte[] { 4, 5, 6, 7 });
+        PluginClassCache cache = open(directory, file);
+        assertThat(bytes(cache.getClassBytes("test.Example")), is(new byte[] { 4, 5, 6, 7 }));
+        assertThat(directory.list().length, is(1));
+        assertThat(directory.list()[0], is(not(first)));
+    }
+
+    @Test
+    public void testOtherJarCachesKept() throws IOException {
+        File directory = folder.newFolder("cache");
+        File file = writeJar(new byte[] { 1, 2, 3 });
+        File other = writeJar("Example.jar.old.jar", new byte[] { 4, 5, 6 });
+        open(directory, other);
+        String otherCache = directory.list()[0];
+        File unrelated = new File(directory, "Example.jar.notes.classcache");
+        assertThat(unrelated.createNewFile(), is(true));
+
+        open(directory, file);
+        writeJar(new byte[] { 7, 8, 9 });
+        open(directory, file);
+        assertThat(directory.list().length, is(3));
+        assertThat(new File(directory, otherCache).isFile(), is(true));
+        assertThat(unrelated.isFile(), is(true));
+    }
+
+    private File writeJar(byte[] classBytes) throws IOException {
+        return writeJar("Example.jar", classBytes);
+    }
+
+    private File writeJar(String name, byte[] classBytes) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(file));
+        try {
+            out.putNextEntry(new ZipEntry("plugin.yml"));
+            out.write("name: Example".getBytes("UTF-8"));
+            out.putNextEntry(new ZipEntry("test/Example.class"));
+            out.write(classBytes);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static PluginClassCache open(File directory, File file) throws IOException {
+        JarFile jar = new JarFile(file);
+        try {
+            return PluginClassCache.open(directory, file, jar, ImmutableSet.of("test.Example"));
+        } finally {
+            jar.close();
+        }
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}